@@ -0,0 +1,193 @@
+package com.mmall.common;
+
+import com.google.common.collect.Lists;
+import com.mmall.dao.CategoryMapper;
+import com.mmall.pojo.Category;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Created by Allen
+ * 品类树的内存快照，代替逐个节点递归查询数据库
+ * 快照构建之后不再修改，品类新增、改名之后整体重建并替换，通过InvalidationBus通知其他节点重建
+ * 节点之间的关系全部用int数组保存：
+ * ids          按id排序的所有品类id，数组下标就是节点的编号，按id二分查找编号
+ * parentIds    所有出现过的parent_id(包括根节点的0)，排序去重
+ * childStart   parentIds[i]的子节点是childIndexes[childStart[i]]到childIndexes[childStart[i + 1] - 1]
+ * 快照还没有构建成功时available()返回false，调用方回退到数据库查询
+ */
+@Component
+@Slf4j
+public class CategoryTree {
+
+    private static final String INVALIDATION_TYPE = "category";
+
+    @Autowired
+    private CategoryMapper categoryMapper;
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    public void init() {
+        InvalidationBus.register(INVALIDATION_TYPE, new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidate(String payload) {
+                rebuild();
+            }
+        });
+        rebuild();
+    }
+
+    //pub/sub的消息可能丢失，定时重建兜底
+    @Scheduled(cron = "0 */10 * * * ?")//每10分钟
+    public void rebuild() {
+        try {
+            long start = System.nanoTime();
+            Snapshot newSnapshot = new Snapshot(categoryMapper.selectAll());
+            snapshot = newSnapshot;
+            log.info("category tree rebuilt, categories:{} cost:{}us", newSnapshot.ids.length, (System.nanoTime() - start) / 1000);
+        } catch (Exception e) {
+            //保留原来的快照
+            log.error("category tree rebuild error", e);
+        }
+    }
+
+    /**
+     * 品类修改之后调用，重建本节点的快照并通知其他节点
+     */
+    public void refresh() {
+        rebuild();
+        InvalidationBus.publish(INVALIDATION_TYPE, String.valueOf(System.currentTimeMillis()));
+    }
+
+    public boolean available() {
+        return snapshot != null;
+    }
+
+    /**
+     * @param categoryId
+     * @return categoryId本身(存在时)和所有子孙品类的id
+     */
+    public List<Integer> selectCategoryAndChildrenIds(int categoryId) {
+        return snapshot.descendants(categoryId);
+    }
+
+    /**
+     * @param parentId 0表示查询一级品类
+     * @return 直接子品类
+     */
+    public List<Category> selectChildren(int parentId) {
+        return snapshot.children(parentId);
+    }
+
+    private static class Snapshot {
+        private final int[] ids;
+        private final Category[] categories;
+        private final int[] parentIds;
+        private final int[] childStart;
+        private final int[] childIndexes;
+
+        Snapshot(List<Category> categoryList) {
+            List<Category> sortedList = Lists.newArrayList(categoryList);
+            Collections.sort(sortedList, new Comparator<Category>() {
+                @Override
+                public int compare(Category o1, Category o2) {
+                    return o1.getId().compareTo(o2.getId());
+                }
+            });
+            int size = sortedList.size();
+            ids = new int[size];
+            categories = sortedList.toArray(new Category[size]);
+            //按(parent_id,id)排序的节点编号，同一个父节点的子节点相邻
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = categories[i].getId();
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    int result = Integer.compare(parentId(categories[o1]), parentId(categories[o2]));
+                    return result != 0 ? result : Integer.compare(o1, o2);
+                }
+            });
+
+            int[] distinctParentIds = new int[size];
+            int[] start = new int[size + 1];
+            childIndexes = new int[size];
+            int parentCount = 0;
+            for (int i = 0; i < size; i++) {
+                childIndexes[i] = order[i];
+                int parentId = parentId(categories[order[i]]);
+                if (parentCount == 0 || distinctParentIds[parentCount - 1] != parentId) {
+                    distinctParentIds[parentCount] = parentId;
+                    start[parentCount] = i;
+                    parentCount++;
+                }
+            }
+            start[parentCount] = size;
+            parentIds = Arrays.copyOf(distinctParentIds, parentCount);
+            childStart = Arrays.copyOf(start, parentCount + 1);
+        }
+
+        private static int parentId(Category category) {
+            return category.getParentId() == null ? 0 : category.getParentId();
+        }
+
+        List<Category> children(int parentId) {
+            int p = Arrays.binarySearch(parentIds, parentId);
+            if (p < 0) {
+                return Lists.newArrayList();
+            }
+            List<Category> childList = Lists.newArrayListWithCapacity(childStart[p + 1] - childStart[p]);
+            for (int i = childStart[p]; i < childStart[p + 1]; i++) {
+                childList.add(categories[childIndexes[i]]);
+            }
+            return childList;
+        }
+
+        //非递归的深度优先遍历，visited防止数据中出现环时死循环
+        List<Integer> descendants(int categoryId) {
+            List<Integer> idList = Lists.newArrayList();
+            boolean[] visited = new boolean[ids.length];
+            int[] stack = new int[ids.length + 1];
+            int top = 0;
+            int self = Arrays.binarySearch(ids, categoryId);
+            if (self >= 0) {
+                visited[self] = true;
+                idList.add(categoryId);
+            }
+            //categoryId本身不存在时，和原来的递归查询一样仍然查找parent_id为categoryId的子节点
+            top = pushChildren(categoryId, stack, top, visited);
+            while (top > 0) {
+                int index = stack[--top];
+                idList.add(ids[index]);
+                top = pushChildren(ids[index], stack, top, visited);
+            }
+            return idList;
+        }
+
+        private int pushChildren(int parentId, int[] stack, int top, boolean[] visited) {
+            int p = Arrays.binarySearch(parentIds, parentId);
+            if (p < 0) {
+                return top;
+            }
+            for (int i = childStart[p]; i < childStart[p + 1]; i++) {
+                int child = childIndexes[i];
+                if (!visited[child]) {
+                    visited[child] = true;
+                    stack[top++] = child;
+                }
+            }
+            return top;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.mmall.common;
+
+import com.google.common.collect.Maps;
+import com.mmall.util.PropertiesUtil;
+import com.mmall.util.RedisPoolUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Created by Allen
+ * 基于redis pub/sub的本地缓存失效广播，集群中每个tomcat节点都订阅同一个channel
+ * 消息格式：nodeId|type|payload，本节点发出的消息在发送前已经在本地处理过，收到后直接忽略
+ */
+@Slf4j
+public class InvalidationBus {
+
+    public interface Listener {
+        void onInvalidate(String payload);
+    }
+
+    private static final String CHANNEL = PropertiesUtil.getProperty("invalidation.channel", "mmall:invalidation");
+    private static final String SEPARATOR = "|";
+    //订阅断开之后重连的间隔
+    private static final long RECONNECT_INTERVAL = 3000;
+
+    //当前节点的标识，用来过滤自己发出的消息
+    public static final String NODE_ID = UUID.randomUUID().toString().replace("-", "");
+
+    private static ConcurrentMap<String, Listener> listenerMap = Maps.newConcurrentMap();
+
+    private static String redisIp = PropertiesUtil.getProperty("redis1.ip");
+    private static Integer redisPort = Integer.parseInt(PropertiesUtil.getProperty("redis1.port"));
+
+    static {
+        Thread subscriber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribeLoop();
+            }
+        }, "invalidation-bus-subscriber");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    /**
+     * 注册某一类失效消息的处理器，同一个type只保留一个
+     * @param type
+     * @param listener
+     */
+    public static void register(String type, Listener listener) {
+        listenerMap.put(type, listener);
+    }
+
+    /**
+     * 广播失效消息，调用方需要自己先处理本地的缓存
+     * @param type
+     * @param payload
+     */
+    public static void publish(String type, String payload) {
+        RedisPoolUtil.publish(CHANNEL, NODE_ID + SEPARATOR + type + SEPARATOR + payload);
+    }
+
+    private static void subscribeLoop() {
+        while (true) {
+            //subscribe会一直阻塞，所以单独使用一个连接，不占用RedisPool中的连接
+            Jedis jedis = null;
+            try {
+                jedis = new Jedis(redisIp, redisPort);
+                log.info("invalidation bus subscribe channel:{} nodeId:{}", CHANNEL, NODE_ID);
+                jedis.subscribe(new Subscriber(), CHANNEL);
+            } catch (Exception e) {
+                log.error("invalidation bus subscribe error", e);
+            } finally {
+                if (jedis != null) {
+                    try {
+                        jedis.close();
+                    } catch (Exception e) {
+                        log.warn("invalidation bus close jedis error", e);
+                    }
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void dispatch(String message) {
+        String[] parts = StringUtils.split(message, SEPARATOR, 3);
+        if (parts == null || parts.length < 3) {
+            log.warn("invalidation bus ignore illegal message:{}", message);
+            return;
+        }
+        if (NODE_ID.equals(parts[0])) {
+            return;
+        }
+        Listener listener = listenerMap.get(parts[1]);
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onInvalidate(parts[2]);
+        } catch (Exception e) {
+            log.error("invalidation bus handle message:{} error", message, e);
+        }
+    }
+
+    private static class Subscriber extends JedisPubSub {
+        @Override
+        public void onMessage(String channel, String message) {
+            dispatch(message);
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+        }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPUnsubscribe(String pattern, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+        }
+    }
+}
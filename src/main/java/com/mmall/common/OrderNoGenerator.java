@@ -0,0 +1,138 @@
+package com.mmall.common;
+
+import com.google.common.collect.Lists;
+import com.mmall.util.PropertiesUtil;
+import com.mmall.util.RedisShardedPoolUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Created by Allen
+ * 订单号生成，snowflake格式，节点id通过redis租约分配，集群中每个tomcat节点的id不同
+ * 租约的key是order_no:node:{节点id}，value是InvalidationBus.NODE_ID，定时续期，正常关闭时释放
+ * 进程重启时上一次的租约还没有过期，会分配到新的节点id，时钟回拨也不会和重启前生成的订单号重复
+ * 没有持有租约时拒绝生成订单号：启动时没有获得租约、租约被其他节点占用、或者redis不可用导致租约到期之前没有续期成功，
+ * 之后每次续期时重新尝试获得租约
+ * 配置了order.no.node.id时不使用租约，固定使用配置的节点id，由配置保证每个节点不同
+ */
+@Component
+@Slf4j
+public class OrderNoGenerator {
+
+    private static final String NODE_KEY_PREFIX = "order_no:node:";
+    private static final long LEASE_MILLIS = Long.parseLong(PropertiesUtil.getProperty("order.no.node.lease.millis", "60000"));
+    private static final String CONFIG_NODE_ID = PropertiesUtil.getProperty("order.no.node.id");
+
+    private static final String RENEW_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end";
+
+    private volatile SnowflakeIdGenerator generator;
+
+    //为null表示没有持有租约
+    private volatile Long leasedNodeId;
+
+    //租约最晚的到期时间，按发出请求之前的本地时间计算，比redis中的到期时间早，超过之后不再生成订单号
+    private volatile long leaseDeadline;
+
+    @PostConstruct
+    public void init() {
+        if (CONFIG_NODE_ID != null) {
+            generator = new SnowflakeIdGenerator(Long.parseLong(CONFIG_NODE_ID));
+            log.info("order no generator configured nodeId:{}", CONFIG_NODE_ID);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long nodeId = acquire();
+        if (nodeId == null) {
+            log.error("order no node id lease not acquired, refuse to create orders until acquired");
+            return;
+        }
+        generator = new SnowflakeIdGenerator(nodeId);
+        leaseDeadline = now + LEASE_MILLIS;
+        log.info("order no generator nodeId:{}", nodeId);
+    }
+
+    /**
+     * @return 是否可以生成订单号，下单之前检查，避免预扣库存之后才失败
+     */
+    public boolean isAvailable() {
+        return generator != null && (CONFIG_NODE_ID != null || System.currentTimeMillis() < leaseDeadline);
+    }
+
+    /**
+     * @return 订单号
+     * @throws IllegalStateException 没有持有节点id的租约
+     */
+    public long nextOrderNo() {
+        //先检查租约再读取generator，续期时先切换generator再更新到期时间
+        if (!isAvailable()) {
+            throw new IllegalStateException("order no node id lease not held");
+        }
+        return generator.nextId();
+    }
+
+    //续期间隔要远小于租约的有效期
+    @Scheduled(cron = "*/10 * * * * ?")//每10秒
+    public void renew() {
+        if (CONFIG_NODE_ID != null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long nodeId = leasedNodeId;
+        if (nodeId != null) {
+            Object result = RedisShardedPoolUtil.eval(RENEW_SCRIPT, Collections.singletonList(NODE_KEY_PREFIX + nodeId),
+                    Lists.newArrayList(InvalidationBus.NODE_ID, String.valueOf(LEASE_MILLIS)));
+            if (result == null) {
+                //redis暂时不可用，租约到期之前仍然可以生成订单号，下次续期即可
+                return;
+            }
+            if ((Long) result == 1) {
+                leaseDeadline = now + LEASE_MILLIS;
+                return;
+            }
+            //节点id可能已经属于其他节点，立即停止生成
+            leaseDeadline = 0;
+            log.error("order no node id lease lost, nodeId:{}", nodeId);
+        }
+        //租约已经被其他节点占用，或者启动时没有获得租约，重新分配
+        Long newNodeId = acquire();
+        if (newNodeId != null) {
+            //先切换节点id再更新到期时间，不会用旧的节点id生成订单号
+            generator = generator == null ? new SnowflakeIdGenerator(newNodeId) : generator.withNodeId(newNodeId);
+            leaseDeadline = now + LEASE_MILLIS;
+            log.info("order no generator nodeId:{}", newNodeId);
+        }
+    }
+
+    @PreDestroy
+    public void release() {
+        Long nodeId = leasedNodeId;
+        if (nodeId != null) {
+            RedisShardedPoolUtil.delIfEquals(NODE_KEY_PREFIX + nodeId, InvalidationBus.NODE_ID);
+        }
+    }
+
+    //从随机位置开始依次尝试，返回null表示redis不可用或者所有节点id都被占用
+    private Long acquire() {
+        leasedNodeId = null;
+        long start = ThreadLocalRandom.current().nextLong(SnowflakeIdGenerator.MAX_NODE_ID + 1);
+        for (long i = 0; i <= SnowflakeIdGenerator.MAX_NODE_ID; i++) {
+            long nodeId = (start + i) & SnowflakeIdGenerator.MAX_NODE_ID;
+            String key = NODE_KEY_PREFIX + nodeId;
+            if (!RedisShardedPoolUtil.isAvailable(key)) {
+                continue;
+            }
+            if (RedisShardedPoolUtil.setNxPx(key, InvalidationBus.NODE_ID, LEASE_MILLIS) != null) {
+                leasedNodeId = nodeId;
+                return nodeId;
+            }
+        }
+        return null;
+    }
+}
@@ -1,5 +1,7 @@
 package com.mmall.common;
 
+import com.mmall.common.monitor.InstrumentedPooledObjectFactory;
+import com.mmall.common.monitor.PoolMetrics;
 import com.mmall.util.PropertiesUtil;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
@@ -10,6 +12,7 @@ import redis.clients.jedis.JedisPoolConfig;
  */
 public class RedisPool {
     private static JedisPool pool;//jedis连接池
+    private static PoolMetrics metrics = PoolMetrics.register("redis");//连接池监控
     private static Integer maxTotal = Integer.parseInt(PropertiesUtil.getProperty("redis.max.total","20")); //最大连接数
     private static Integer maxIdle = Integer.parseInt(PropertiesUtil.getProperty("redis.max.idle","20"));//在jedispool中最大的idle状态(空闲的)的jedis实例的个数
     private static Integer minIdle = Integer.parseInt(PropertiesUtil.getProperty("redis.min.idle","20"));//在jedispool中最小的idle状态(空闲的)的jedis实例的个数
@@ -33,7 +36,7 @@ public class RedisPool {
 
         config.setBlockWhenExhausted(true);//连接耗尽的时候，是否阻塞，false会抛出异常，true阻塞直到超时。默认为true。
 
-        pool = new JedisPool(config,redisIp,redisPort,1000*2);
+        pool = new InstrumentedJedisPool(config,redisIp,redisPort,1000*2);
     }
 
     static{
@@ -41,11 +44,23 @@ public class RedisPool {
     }
 
     public static Jedis getJedis(){
-        return pool.getResource();
+        boolean exhausted = metrics.isExhausted();
+        long start = System.nanoTime();
+        try {
+            Jedis jedis = pool.getResource();
+            metrics.recordBorrow(System.nanoTime() - start, exhausted);
+            return jedis;
+        } catch (RuntimeException e) {
+            metrics.recordBorrowFail();
+            throw e;
+        }
     }
 
 
     public static void returnBrokenResource(Jedis jedis){
+        if (jedis != null){
+            metrics.recordBrokenReturn();
+        }
         pool.returnBrokenResource(jedis);
     }
 
@@ -55,6 +70,12 @@ public class RedisPool {
         pool.returnResource(jedis);
     }
 
-
-
+    //替换连接池内部的factory，统计testOnBorrow时PING的耗时
+    private static class InstrumentedJedisPool extends JedisPool {
+        InstrumentedJedisPool(JedisPoolConfig config, String host, int port, int timeout) {
+            super(config, host, port, timeout);
+            initPool(config, new InstrumentedPooledObjectFactory<Jedis>(internalPool.getFactory(), metrics));
+            metrics.setPoolStats(PoolMetrics.poolStats(internalPool));
+        }
+    }
 }
@@ -1,18 +1,39 @@
 package com.mmall.common;
 
+import com.google.common.base.Splitter;
+import com.mmall.common.monitor.InstrumentedPooledObjectFactory;
+import com.mmall.common.monitor.PoolMetrics;
 import com.mmall.util.PropertiesUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
 import redis.clients.jedis.*;
 import redis.clients.util.Hashing;
 import redis.clients.util.Sharded;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Created by Allen
+ * 分片节点在mmall.properties中配置：
+ * redis.shards=redis1,redis2 节点列表，每个节点读取 节点.ip 节点.port 节点.weight 节点.name
+ * 没有配置name时使用节点在列表中的下标生成虚拟节点，和原来写死两个节点时的分布保持一致
+ * 扩容或者缩容时把原来的节点列表配置到redis.shards.previous，进入迁移模式：
+ * 读取时新节点上不存在就去旧节点上查找，找到之后迁移到新节点，删除时新旧节点都删除
+ * 每个分片有一个ShardCircuitBreaker，连接池校验连接时跳过已经熔断的分片
  */
+@Slf4j
 public class RedisShardedPool {
     private static ShardedJedisPool pool;//sharded jedis连接池
+    private static ShardedJedisPool previousPool;//迁移模式下旧的分片拓扑，没有配置时为null
+    private static Sharded<Jedis,JedisShardInfo> router;//和连接池使用同一份分片信息，不借连接就可以知道key所在的分片
+    private static List<String> shardAddressList = new ArrayList<String>();
+    private static PoolMetrics metrics = PoolMetrics.register("redisSharded");//连接池监控
+    private static PoolMetrics previousMetrics = PoolMetrics.register("redisShardedPrevious");
     private static Integer maxTotal = Integer.parseInt(PropertiesUtil.getProperty("redis.max.total","20")); //最大连接数
     private static Integer maxIdle = Integer.parseInt(PropertiesUtil.getProperty("redis.max.idle","20"));//在jedispool中最大的idle状态(空闲的)的jedis实例的个数
     private static Integer minIdle = Integer.parseInt(PropertiesUtil.getProperty("redis.min.idle","20"));//在jedispool中最小的idle状态(空闲的)的jedis实例的个数
@@ -20,12 +41,9 @@ public class RedisShardedPool {
     private static Boolean testOnBorrow = Boolean.parseBoolean(PropertiesUtil.getProperty("redis.test.borrow","true"));//在borrow一个jedis实例的时候，是否要进行验证操作，如果赋值true。则得到的jedis实例肯定是可以用的。
     private static Boolean testOnReturn = Boolean.parseBoolean(PropertiesUtil.getProperty("redis.test.return","true"));//在return一个jedis实例的时候，是否要进行验证操作，如果赋值true。则放回jedispool的jedis实例肯定是可以用的。
 
-    private static String redis1Ip = PropertiesUtil.getProperty("redis1.ip");
-    private static Integer redis1Port = Integer.parseInt(PropertiesUtil.getProperty("redis1.port"));
-
-
-    private static String redis2Ip = PropertiesUtil.getProperty("redis2.ip");
-    private static Integer redis2Port = Integer.parseInt(PropertiesUtil.getProperty("redis2.port"));
+    private static String shards = PropertiesUtil.getProperty("redis.shards","redis1,redis2");
+    private static String previousShards = PropertiesUtil.getProperty("redis.shards.previous");
+    private static Integer timeout = Integer.parseInt(PropertiesUtil.getProperty("redis.timeout","2000"));
 
     private static void initPool(){
         JedisPoolConfig config = new JedisPoolConfig();
@@ -39,18 +57,32 @@ public class RedisShardedPool {
 
         config.setBlockWhenExhausted(true);//连接耗尽的时候，是否阻塞，false会抛出异常，true阻塞直到超时。默认为true。
 
-        //JedisShardInfo类包含了jedis服务器的一些信息，每个代表一个真实的节点，我们有两个redis，所以需要创建两个
-        //redis，传入ip，端口，默认也是2秒
-        JedisShardInfo info1 = new JedisShardInfo(redis1Ip,redis1Port,1000*2);
-        JedisShardInfo info2 = new JedisShardInfo(redis2Ip,redis2Port,1000*2);
-        //创建list集合存放所有的节点
-        List<JedisShardInfo> jedisShardInfoList = new ArrayList<JedisShardInfo>(2);
-        jedisShardInfoList.add(info1);
-        jedisShardInfoList.add(info2);
         //第一个参数是config配置，第二个参数是list，存放的是节点数，第三个参数是hashing调用murmur_hash策略，这是默认策略
         //还有一个是MD5策略，这个策略对应的就是一致性算法。MD5 is really not good
-        pool = new ShardedJedisPool(config,jedisShardInfoList, Hashing.MURMUR_HASH, Sharded.DEFAULT_KEY_TAG_PATTERN);
+        List<JedisShardInfo> shardInfoList = buildShardInfoList(shards);
+        for (JedisShardInfo shardInfo : shardInfoList){
+            shardAddressList.add(((NamedJedisShardInfo) shardInfo).address);
+        }
+        router = new Sharded<Jedis,JedisShardInfo>(shardInfoList, Hashing.MURMUR_HASH, Sharded.DEFAULT_KEY_TAG_PATTERN);
+        pool = new InstrumentedShardedJedisPool(config,shardInfoList, Hashing.MURMUR_HASH, Sharded.DEFAULT_KEY_TAG_PATTERN,metrics);
+        if (StringUtils.isNotBlank(previousShards)){
+            log.info("redis shard migration mode, previous shards:{} current shards:{}",previousShards,shards);
+            previousPool = new InstrumentedShardedJedisPool(config,buildShardInfoList(previousShards), Hashing.MURMUR_HASH, Sharded.DEFAULT_KEY_TAG_PATTERN,previousMetrics);
+        }
+    }
 
+    //JedisShardInfo类包含了jedis服务器的一些信息，每个代表一个真实的节点
+    private static List<JedisShardInfo> buildShardInfoList(String shardNames){
+        List<String> shardNameList = Splitter.on(",").trimResults().omitEmptyStrings().splitToList(shardNames);
+        List<JedisShardInfo> jedisShardInfoList = new ArrayList<JedisShardInfo>(shardNameList.size());
+        for (String shardName : shardNameList){
+            String ip = PropertiesUtil.getProperty(shardName+".ip");
+            int port = Integer.parseInt(PropertiesUtil.getProperty(shardName+".port"));
+            int weight = Integer.parseInt(PropertiesUtil.getProperty(shardName+".weight",String.valueOf(Sharded.DEFAULT_WEIGHT)));
+            String name = PropertiesUtil.getProperty(shardName+".name");
+            jedisShardInfoList.add(new NamedJedisShardInfo(ip,port,timeout,weight,name));
+        }
+        return jedisShardInfoList;
     }
 
     static{
@@ -99,11 +131,66 @@ public class RedisShardedPool {
     }
 */
     public static ShardedJedis getJedis(){
-        return pool.getResource();
+        return borrow(pool,metrics);
+    }
+
+    /**
+     * key所在分片的熔断器，按key tag路由，和ShardedJedis的路由结果一致
+     * @param key
+     * @return
+     */
+    public static ShardCircuitBreaker getBreaker(String key){
+        return ((NamedJedisShardInfo) router.getShardInfo(key)).breaker;
+    }
+
+    //key所在分片的 host:port
+    public static String getShardAddress(String key){
+        return ((NamedJedisShardInfo) router.getShardInfo(key)).address;
+    }
+
+    public static List<String> getShardAddressList(){
+        return Collections.unmodifiableList(shardAddressList);
+    }
+
+    public static boolean isMigrating(){
+        return previousPool != null;
+    }
+
+    //迁移模式下获取旧拓扑的ShardedJedis
+    public static ShardedJedis getPreviousJedis(){
+        return borrow(previousPool,previousMetrics);
+    }
+
+    public static void returnPreviousBrokenResource(ShardedJedis jedis){
+        if (jedis != null){
+            previousMetrics.recordBrokenReturn();
+        }
+        previousPool.returnBrokenResource(jedis);
+    }
+
+    //记录获取连接的等待时间，blockWhenExhausted为true时连接耗尽会一直阻塞在这里
+    private static ShardedJedis borrow(ShardedJedisPool shardedJedisPool,PoolMetrics poolMetrics){
+        boolean exhausted = poolMetrics.isExhausted();
+        long start = System.nanoTime();
+        try {
+            ShardedJedis jedis = shardedJedisPool.getResource();
+            poolMetrics.recordBorrow(System.nanoTime() - start, exhausted);
+            return jedis;
+        } catch (RuntimeException e) {
+            poolMetrics.recordBorrowFail();
+            throw e;
+        }
+    }
+
+    public static void returnPreviousResource(ShardedJedis jedis){
+        previousPool.returnResource(jedis);
     }
 
 
     public static void returnBrokenResource(ShardedJedis jedis){
+        if (jedis != null){
+            metrics.recordBrokenReturn();
+        }
         pool.returnBrokenResource(jedis);
     }
 
@@ -128,4 +215,108 @@ public class RedisShardedPool {
 
     }
 
+    /**
+     * jedis 2.6的JedisShardInfo不能同时指定weight和name，这里通过重写getName实现
+     * Sharded初始化虚拟节点时name为null使用 SHARD-下标-NODE-n，否则使用 name*weight+n
+     */
+    private static class NamedJedisShardInfo extends JedisShardInfo {
+        private final String name;
+        private final ShardCircuitBreaker breaker;
+        private final String address;
+
+        NamedJedisShardInfo(String host, int port, int timeout, int weight, String name) {
+            super(host, port, timeout, weight);
+            this.name = name;
+            this.address = host + ":" + port;
+            this.breaker = ShardCircuitBreaker.of(host, port);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    //替换连接池内部的factory，统计testOnBorrow时PING的耗时，sharded连接池校验时会PING每个分片
+    private static class InstrumentedShardedJedisPool extends ShardedJedisPool {
+        InstrumentedShardedJedisPool(JedisPoolConfig config, List<JedisShardInfo> shards, Hashing algo, Pattern keyTagPattern, PoolMetrics poolMetrics) {
+            super(config, shards, algo, keyTagPattern);
+            initPool(config, new InstrumentedPooledObjectFactory<ShardedJedis>(new BreakerAwareShardedJedisFactory(internalPool.getFactory()), poolMetrics));
+            poolMetrics.setPoolStats(PoolMetrics.poolStats(internalPool));
+        }
+    }
+
+    /**
+     * jedis自带的factory校验时PING所有分片，一个分片宕机会导致整个连接池借不到连接
+     * 这里跳过已经熔断的分片，单个分片PING失败只断开该分片的连接并计入熔断，不判定整个ShardedJedis无效
+     * 销毁时同样跳过熔断和未连接的分片，避免quit时重新连接宕机的节点
+     */
+    private static class BreakerAwareShardedJedisFactory implements PooledObjectFactory<ShardedJedis> {
+        private final PooledObjectFactory<ShardedJedis> delegate;
+
+        BreakerAwareShardedJedisFactory(PooledObjectFactory<ShardedJedis> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public PooledObject<ShardedJedis> makeObject() throws Exception {
+            return delegate.makeObject();
+        }
+
+        @Override
+        public void destroyObject(PooledObject<ShardedJedis> p) throws Exception {
+            for (Jedis shard : p.getObject().getAllShards()) {
+                try {
+                    if (shard.isConnected() && !breakerOf(shard).isOpen()) {
+                        shard.quit();
+                    }
+                } catch (Exception e) {
+                    log.debug("quit redis shard error", e);
+                }
+                try {
+                    shard.disconnect();
+                } catch (Exception e) {
+                    log.debug("disconnect redis shard error", e);
+                }
+            }
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<ShardedJedis> p) {
+            for (Jedis shard : p.getObject().getAllShards()) {
+                ShardCircuitBreaker breaker = breakerOf(shard);
+                if (breaker.isOpen()) {
+                    continue;
+                }
+                try {
+                    if (!"PONG".equals(shard.ping())) {
+                        return false;
+                    }
+                    breaker.recordSuccess();
+                } catch (Exception e) {
+                    breaker.recordFailure(e);
+                    try {
+                        shard.disconnect();
+                    } catch (Exception disconnectException) {
+                        log.debug("disconnect redis shard error", disconnectException);
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void activateObject(PooledObject<ShardedJedis> p) throws Exception {
+            delegate.activateObject(p);
+        }
+
+        @Override
+        public void passivateObject(PooledObject<ShardedJedis> p) throws Exception {
+            delegate.passivateObject(p);
+        }
+
+        private ShardCircuitBreaker breakerOf(Jedis shard) {
+            return ShardCircuitBreaker.of(shard.getClient().getHost(), shard.getClient().getPort());
+        }
+    }
 }
@@ -31,7 +31,7 @@ public class RedissonManager {
     @PostConstruct//在执行构造方法时就执行这个函数
     private void init(){
         try {
-            config.useSingleServer().setAddress(new StringBuilder().append(redis1Ip).append(redis1Port).toString());
+            config.useSingleServer().setAddress(new StringBuilder().append(redis1Ip).append(":").append(redis1Port).toString());
             redisson = (Redisson) Redisson.create(config);
             log.info("初始化Redisson结束");
         } catch (Exception e) {
@@ -8,7 +8,9 @@ public enum ResponseCode {
     SUCCESS(0,"SUCCESS"),
     ERROR(1,"ERROR"),
     NEED_LOGIN(10,"NEED_LOGIN"),
-    ILLEGAL_ARGUMENT(2,"ILLEGAL_ARGUMENT");
+    ILLEGAL_ARGUMENT(2,"ILLEGAL_ARGUMENT"),
+    //异步下单还在处理中
+    PROCESSING(3,"PROCESSING");
 
     private final int code;
     private final String desc;
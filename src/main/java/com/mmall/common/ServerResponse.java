@@ -1,6 +1,8 @@
 package com.mmall.common;
 
+import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 import java.io.Serializable;
@@ -31,7 +33,9 @@ public class ServerResponse<T> implements Serializable {
         this.data = data;
     }
 
-    private ServerResponse(int status, String msg, T data) {
+    //反序列化时使用，例如从缓存中读取
+    @JsonCreator
+    private ServerResponse(@JsonProperty("status") int status, @JsonProperty("msg") String msg, @JsonProperty("data") T data) {
         this.status = status;
         this.msg = msg;
         this.data = data;
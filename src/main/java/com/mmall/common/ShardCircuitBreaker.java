@@ -0,0 +1,165 @@
+package com.mmall.common;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mmall.util.PropertiesUtil;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Allen
+ * redis分片的熔断器，按 host:port 区分，迁移模式下新旧拓扑中同一个节点共用一个熔断器
+ * 连续出现failureThreshold次连接异常之后熔断，熔断期间路由到该分片的请求直接失败，不再等待socket超时
+ * 熔断之后由后台线程定时PING该节点，PING通之后恢复
+ */
+@Slf4j
+public class ShardCircuitBreaker {
+
+    private static final int FAILURE_THRESHOLD = Integer.parseInt(PropertiesUtil.getProperty("redis.breaker.failure.threshold", "5"));
+    //探测间隔(毫秒)
+    private static final long PROBE_INTERVAL = Long.parseLong(PropertiesUtil.getProperty("redis.breaker.probe.interval", "1000"));
+    private static final int PROBE_TIMEOUT = Integer.parseInt(PropertiesUtil.getProperty("redis.timeout", "2000"));
+
+    private static ConcurrentMap<String, ShardCircuitBreaker> breakerMap = Maps.newConcurrentMap();
+
+    private static ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("redis-breaker-probe").setDaemon(true).build());
+
+    static {
+        prober.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (ShardCircuitBreaker breaker : breakerMap.values()) {
+                    if (breaker.open) {
+                        breaker.probe();
+                    }
+                }
+            }
+        }, PROBE_INTERVAL, PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private final String host;
+    private final int port;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean open;
+    private volatile long openedAt;
+    private final AtomicLong openCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private ShardCircuitBreaker(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static ShardCircuitBreaker of(JedisShardInfo shardInfo) {
+        return of(shardInfo.getHost(), shardInfo.getPort());
+    }
+
+    public static ShardCircuitBreaker of(String host, int port) {
+        String name = host + ":" + port;
+        ShardCircuitBreaker breaker = breakerMap.get(name);
+        if (breaker == null) {
+            breakerMap.putIfAbsent(name, new ShardCircuitBreaker(host, port));
+            breaker = breakerMap.get(name);
+        }
+        return breaker;
+    }
+
+    /**
+     * 请求分片之前调用，熔断期间返回false并计数
+     * @return
+     */
+    public boolean allowRequest() {
+        if (open) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    //只判断状态，不计数
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void recordSuccess() {
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * 只有连接异常(连接不上、读写超时)才计入熔断，命令本身的错误说明节点是正常的
+     * @param e
+     */
+    public void recordFailure(Exception e) {
+        if (e instanceof JedisConnectionException) {
+            recordConnectionFailure();
+        }
+    }
+
+    //调用方已经判断过是连接异常，例如异步客户端的连接和超时异常
+    public void recordConnectionFailure() {
+        if (consecutiveFailures.incrementAndGet() >= FAILURE_THRESHOLD && !open) {
+            synchronized (this) {
+                if (!open) {
+                    openedAt = System.currentTimeMillis();
+                    open = true;
+                    openCount.incrementAndGet();
+                    log.error("redis shard {}:{} circuit open after {} consecutive failures", host, port, consecutiveFailures.get());
+                }
+            }
+        }
+    }
+
+    //使用单独的连接探测，不占用连接池
+    private void probe() {
+        Jedis jedis = null;
+        try {
+            jedis = new Jedis(host, port, PROBE_TIMEOUT);
+            if ("PONG".equals(jedis.ping())) {
+                consecutiveFailures.set(0);
+                open = false;
+                log.info("redis shard {}:{} circuit closed, opened {}ms", host, port, System.currentTimeMillis() - openedAt);
+            }
+        } catch (Exception e) {
+            log.debug("redis shard {}:{} probe failed", host, port);
+        } finally {
+            if (jedis != null) {
+                try {
+                    jedis.close();
+                } catch (Exception e) {
+                    log.debug("redis shard {}:{} close probe jedis error", host, port);
+                }
+            }
+        }
+    }
+
+    public static List<Map<String, Object>> snapshotAll() {
+        List<Map<String, Object>> snapshotList = Lists.newArrayList();
+        for (Map.Entry<String, ShardCircuitBreaker> entry : breakerMap.entrySet()) {
+            ShardCircuitBreaker breaker = entry.getValue();
+            Map<String, Object> snapshot = Maps.newLinkedHashMap();
+            snapshot.put("shard", entry.getKey());
+            snapshot.put("open", breaker.open);
+            snapshot.put("openedAt", breaker.open ? breaker.openedAt : null);
+            snapshot.put("consecutiveFailures", breaker.consecutiveFailures.get());
+            snapshot.put("openCount", breaker.openCount.get());
+            snapshot.put("rejectedCount", breaker.rejectedCount.get());
+            snapshotList.add(snapshot);
+        }
+        return snapshotList;
+    }
+}
@@ -0,0 +1,82 @@
+package com.mmall.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Allen
+ * snowflake格式的id，从高位到低位：1位符号位(始终为0) | 41位毫秒时间戳 | 10位节点id | 12位毫秒内序号
+ * 时间戳从EPOCH开始计算，可以使用69年
+ * 时间戳和序号打包在一个AtomicLong中(时间戳 << 12 | 序号)，通过CAS更新，不加锁
+ * 同一毫秒内序号用完或者系统时钟回拨时，不等待时钟，直接在上一个id的基础上加一，
+ * 序号进位到时间戳，相当于提前使用下一毫秒，生成的id始终递增
+ */
+public class SnowflakeIdGenerator {
+
+    //2017-01-01 00:00:00 UTC
+    public static final long EPOCH = 1483228800000L;
+
+    public static final int NODE_ID_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final long MAX_NODE_ID = (1L << NODE_ID_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeId;
+
+    //上一个id的 时间戳 << SEQUENCE_BITS | 序号
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdGenerator(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("nodeId must be between 0 and " + MAX_NODE_ID + ", nodeId:" + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * 更换节点id，节点id在序号的高位，同一毫秒内换成较小的节点id会使id变小，
+     * 所以从上一个id的下一毫秒开始生成，更换前后的id仍然递增
+     * @param nodeId
+     * @return
+     */
+    public SnowflakeIdGenerator withNodeId(long nodeId) {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(nodeId);
+        generator.last.set(((last.get() >>> SEQUENCE_BITS) + 1) << SEQUENCE_BITS);
+        return generator;
+    }
+
+    public long nextId() {
+        while (true) {
+            long current = last.get();
+            long timestamp = currentTimeMillis() - EPOCH;
+            long next;
+            if (timestamp > current >>> SEQUENCE_BITS) {
+                next = timestamp << SEQUENCE_BITS;
+            } else {
+                //同一毫秒，或者时钟回拨
+                next = current + 1;
+            }
+            if (last.compareAndSet(current, next)) {
+                return (next >>> SEQUENCE_BITS) << (NODE_ID_BITS + SEQUENCE_BITS)
+                        | nodeId << SEQUENCE_BITS
+                        | next & SEQUENCE_MASK;
+            }
+        }
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 时钟回拨或者序号用完之后，逻辑时间比系统时间超前的毫秒数
+     * @return
+     */
+    public long getAheadMillis() {
+        return Math.max(0, (last.get() >>> SEQUENCE_BITS) - (currentTimeMillis() - EPOCH));
+    }
+
+    //测试时覆盖，模拟时钟回拨
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,53 @@
+package com.mmall.common.cache;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Created by Allen
+ * 标注在service方法上，返回值按 本地缓存 -> redis -> 方法本身 的顺序读取，未命中时回写两级缓存
+ * 本地缓存中保存的是返回值对象本身，多个请求共用同一个实例，调用方不能修改返回值
+ * ttl和本地缓存大小可以在mmall.properties中按cache名覆盖：
+ * cache.名称.local.ttl cache.名称.local.size cache.名称.redis.ttl cache.名称.stale.ttl cache.名称.lease
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheAside {
+
+    //cache名称，同时作为redis key的前缀
+    String name();
+
+    /**
+     * SpEL表达式，可以使用参数名、#p0、#a0，为空时使用keyGenerator
+     */
+    String key() default "";
+
+    Class<? extends CacheKeyGenerator> keyGenerator() default DefaultCacheKeyGenerator.class;
+
+    //redis中保存的格式，反序列化时使用方法的返回类型(包括泛型参数)
+    Class<? extends CacheSerializer> serializer() default JsonCacheSerializer.class;
+
+    //本地缓存的有效期(秒)，小于等于0时不使用本地缓存
+    int localTtl() default 30;
+
+    int localSize() default 1000;
+
+    //redis中的有效期(秒)，小于等于0时不使用redis
+    int redisTtl() default 600;
+
+    //过了redisTtl之后旧值继续保留的时间(秒)，这段时间内只有一个请求回源，其他请求返回旧值
+    int staleTtl() default 0;
+
+    //redis中没有值时是否通过租约保证多个节点中只有一个回源
+    boolean lease() default false;
+
+    /**
+     * SpEL表达式，结果为true时不缓存，可以使用#result，例如 "!#result.success" 表示不缓存失败的响应
+     * 返回值为null时总是不缓存
+     */
+    String unless() default "";
+}
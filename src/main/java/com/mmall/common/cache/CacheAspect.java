@@ -0,0 +1,128 @@
+package com.mmall.common.cache;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Created by Allen
+ * @CacheAside和@CacheInvalidate的切面，applicationContext.xml中已经开启了aspectj-autoproxy
+ * service通过接口注入，使用的是jdk动态代理，注解要标注在实现类的方法上
+ */
+@Aspect
+@Component
+@Slf4j
+public class CacheAspect {
+
+    private ExpressionParser parser = new SpelExpressionParser();
+    private ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    //解析过的SpEL表达式
+    private ConcurrentMap<String, Expression> expressionMap = Maps.newConcurrentMap();
+    //keyGenerator和serializer的实例，每个类只创建一个
+    private ConcurrentMap<Class<?>, Object> instanceMap = Maps.newConcurrentMap();
+
+    @Around(value = "@annotation(cacheAside)", argNames = "cacheAside")
+    public Object cacheAside(final ProceedingJoinPoint joinPoint, final CacheAside cacheAside) throws Throwable {
+        final Method method = specificMethod(joinPoint);
+        final Object[] args = joinPoint.getArgs();
+        TwoLevelCache cache = TwoLevelCache.getOrCreate(cacheAside, instance(cacheAside.serializer()));
+        String key = key(cacheAside.key(), cacheAside.keyGenerator(), method, args);
+
+        return cache.getOrLoad(key, method.getGenericReturnType(), new TwoLevelCache.Loader() {
+            @Override
+            public Object load() throws Throwable {
+                return joinPoint.proceed();
+            }
+
+            @Override
+            public boolean cacheable(Object value) {
+                return !unless(cacheAside.unless(), method, args, value);
+            }
+        });
+    }
+
+    @AfterReturning(value = "@annotation(cacheInvalidate)", argNames = "cacheInvalidate")
+    public void cacheInvalidate(JoinPoint joinPoint, CacheInvalidate cacheInvalidate) {
+        Method method = specificMethod(joinPoint);
+        String key = key(cacheInvalidate.key(), cacheInvalidate.keyGenerator(), method, joinPoint.getArgs());
+        TwoLevelCache.invalidate(cacheInvalidate.name(), key);
+    }
+
+    private String key(String keyExpression, Class<? extends CacheKeyGenerator> keyGenerator, Method method, Object[] args) {
+        if (StringUtils.isEmpty(keyExpression)) {
+            return instance(keyGenerator).generate(method, args);
+        }
+        return String.valueOf(expression(keyExpression).getValue(context(method, args, null)));
+    }
+
+    private boolean unless(String unlessExpression, Method method, Object[] args, Object result) {
+        if (StringUtils.isEmpty(unlessExpression)) {
+            return false;
+        }
+        return Boolean.TRUE.equals(expression(unlessExpression).getValue(context(method, args, result), Boolean.class));
+    }
+
+    //参数可以通过 参数名、#p0、#a0 引用，返回值通过#result引用
+    private EvaluationContext context(Method method, Object[] args, Object result) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        String[] parameterNames = parameterNameDiscoverer.getParameterNames(method);
+        for (int i = 0; i < args.length; i++) {
+            context.setVariable("p" + i, args[i]);
+            context.setVariable("a" + i, args[i]);
+            if (parameterNames != null) {
+                context.setVariable(parameterNames[i], args[i]);
+            }
+        }
+        context.setVariable("result", result);
+        return context;
+    }
+
+    private Expression expression(String expressionString) {
+        Expression expression = expressionMap.get(expressionString);
+        if (expression == null) {
+            expression = parser.parseExpression(expressionString);
+            expressionMap.putIfAbsent(expressionString, expression);
+        }
+        return expression;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T instance(Class<T> clazz) {
+        Object instance = instanceMap.get(clazz);
+        if (instance == null) {
+            try {
+                instance = clazz.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("can not create " + clazz.getName(), e);
+            }
+            instanceMap.putIfAbsent(clazz, instance);
+            instance = instanceMap.get(clazz);
+        }
+        return (T) instance;
+    }
+
+    //jdk动态代理拿到的是接口的方法，参数名和注解要从实现类的方法上取
+    private Method specificMethod(JoinPoint joinPoint) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return AopUtils.getMostSpecificMethod(method, joinPoint.getTarget().getClass());
+    }
+}
@@ -0,0 +1,26 @@
+package com.mmall.common.cache;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Created by Allen
+ * 标注在更新方法上，方法执行之后删除redis和所有节点本地缓存中的对应key
+ * 方法抛出异常时不删除
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheInvalidate {
+
+    //和@CacheAside的name一致
+    String name();
+
+    //SpEL表达式，计算结果要和@CacheAside的key一致
+    String key() default "";
+
+    Class<? extends CacheKeyGenerator> keyGenerator() default DefaultCacheKeyGenerator.class;
+}
@@ -0,0 +1,12 @@
+package com.mmall.common.cache;
+
+import java.lang.reflect.Method;
+
+/**
+ * Created by Allen
+ * 没有配置key表达式时根据方法参数生成缓存的key，实现类需要有无参构造器
+ */
+public interface CacheKeyGenerator {
+
+    String generate(Method method, Object[] args);
+}
@@ -0,0 +1,19 @@
+package com.mmall.common.cache;
+
+import java.lang.reflect.Type;
+
+/**
+ * Created by Allen
+ * redis中缓存值的编码，实现类需要有无参构造器
+ */
+public interface CacheSerializer {
+
+    byte[] serialize(Object value);
+
+    /**
+     * @param bytes
+     * @param type 方法的返回类型，包括泛型参数
+     * @return 解析失败返回null，按未命中处理
+     */
+    Object deserialize(byte[] bytes, Type type);
+}
@@ -0,0 +1,40 @@
+package com.mmall.common.cache;
+
+import com.mmall.common.InvalidationBus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Allen
+ * 商品目录的版本号，商品和品类的任何修改都会增加版本号，ResponseCache的key中带有版本号，
+ * 版本号变化之后旧的缓存不会再被访问，等待过期淘汰，不需要逐个删除
+ * 每个节点各自计数，通过InvalidationBus通知其他节点增加版本号，各节点的版本号不需要相同
+ */
+public class CatalogVersion {
+
+    private static final String INVALIDATION_TYPE = "catalogVersion";
+
+    private static final AtomicLong version = new AtomicLong();
+
+    static {
+        InvalidationBus.register(INVALIDATION_TYPE, new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidate(String payload) {
+                version.incrementAndGet();
+            }
+        });
+    }
+
+    public static long current() {
+        return version.get();
+    }
+
+    /**
+     * 商品或品类修改成功之后调用，需要在同一次修改的其他缓存失效之后调用，
+     * 否则其他节点可能在旧数据的缓存还没有删除时就用新版本号缓存了旧数据
+     */
+    public static void bump() {
+        version.incrementAndGet();
+        InvalidationBus.publish(INVALIDATION_TYPE, String.valueOf(System.currentTimeMillis()));
+    }
+}
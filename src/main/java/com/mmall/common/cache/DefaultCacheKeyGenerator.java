@@ -0,0 +1,22 @@
+package com.mmall.common.cache;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.reflect.Method;
+
+/**
+ * Created by Allen
+ * 所有参数的toString用":"连接，没有参数时使用"_"，适用于参数都是id等简单类型的方法
+ */
+public class DefaultCacheKeyGenerator implements CacheKeyGenerator {
+
+    private static final String NO_ARGS_KEY = "_";
+
+    @Override
+    public String generate(Method method, Object[] args) {
+        if (args == null || args.length == 0) {
+            return NO_ARGS_KEY;
+        }
+        return StringUtils.join(args, ":");
+    }
+}
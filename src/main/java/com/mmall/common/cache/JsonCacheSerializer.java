@@ -0,0 +1,24 @@
+package com.mmall.common.cache;
+
+import com.google.common.base.Charsets;
+import com.mmall.util.JsonUtil;
+
+import java.lang.reflect.Type;
+
+/**
+ * Created by Allen
+ * 使用JsonUtil的ObjectMapper，日期格式等配置和接口返回的json一致
+ */
+public class JsonCacheSerializer implements CacheSerializer {
+
+    @Override
+    public byte[] serialize(Object value) {
+        String json = JsonUtil.obj2String(value);
+        return json == null ? null : json.getBytes(Charsets.UTF_8);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes, Type type) {
+        return JsonUtil.string2Obj(new String(bytes, Charsets.UTF_8), type);
+    }
+}
@@ -0,0 +1,35 @@
+package com.mmall.common.cache;
+
+import com.mmall.util.RedisShardedPoolUtil;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.UUID;
+
+/**
+ * Created by Allen
+ * 基于 SET NX PX 的短期租约，多个节点中只有一个能拿到，用于控制同一个key只有一个节点回源
+ * 租约到期自动释放，释放时校验token，不会删除其他节点在过期之后重新拿到的租约
+ */
+public class RedisLease {
+
+    private static final String LEASE_PREFIX = "lease:";
+
+    /**
+     * @param key
+     * @param millis 租约的有效期，要大于一次回源的耗时
+     * @return 拿到租约返回token，否则返回null；redis不可用时同样返回null
+     */
+    public static String tryAcquire(String key, long millis) {
+        String token = UUID.randomUUID().toString();
+        if (StringUtils.equals(RedisShardedPoolUtil.setNxPx(LEASE_PREFIX + key, token, millis), "OK")) {
+            return token;
+        }
+        return null;
+    }
+
+    public static void release(String key, String token) {
+        if (token != null) {
+            RedisShardedPoolUtil.delIfEquals(LEASE_PREFIX + key, token);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.mmall.common.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
+import com.mmall.common.ServerResponse;
+import com.mmall.util.PropertiesUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Allen
+ * 匿名访问的商品列表的响应缓存，缓存的是已经序列化好的JSON，命中时不经过MyBatis也不经过Jackson
+ * key是 CatalogVersion:请求参数，商品和品类修改之后版本号增加，旧的缓存自然失效
+ * 只缓存在本地，按字节数限制大小，expireAfterWrite兜底InvalidationBus消息丢失的情况
+ * 只缓存成功的响应
+ */
+@Slf4j
+public class ResponseCache {
+
+    public interface Loader {
+        ServerResponse load();
+    }
+
+    private static final long MAX_BYTES = Long.parseLong(PropertiesUtil.getProperty("response.cache.max.bytes", "33554432"));
+    private static final int TTL = Integer.parseInt(PropertiesUtil.getProperty("response.cache.ttl", "60"));
+    private static final MediaType JSON_UTF8 = MediaType.valueOf("application/json;charset=UTF-8");
+
+    //和MappingJacksonHttpMessageConverter一样使用默认配置，保证缓存的内容和不缓存时一致
+    private static ObjectMapper objectMapper = new ObjectMapper();
+
+    private static Cache<String, byte[]> cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_BYTES)
+            .weigher(new Weigher<String, byte[]>() {
+                @Override
+                public int weigh(String key, byte[] value) {
+                    return key.length() * 2 + value.length;
+                }
+            })
+            .expireAfterWrite(TTL, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+    /**
+     * @param key    请求参数组成的key，不包含版本号
+     * @param loader 没有命中时生成响应
+     * @return
+     */
+    public static ResponseEntity<byte[]> get(String key, Loader loader) {
+        //回源之前取版本号，回源期间版本号变化时结果放在旧版本下，不会被之后的请求读到
+        String versionedKey = CatalogVersion.current() + ":" + key;
+        byte[] body = cache.getIfPresent(versionedKey);
+        if (body == null) {
+            ServerResponse response = loader.load();
+            body = serialize(response);
+            if (response.isSuccess()) {
+                cache.put(versionedKey, body);
+            }
+        }
+        return toEntity(body);
+    }
+
+    /**
+     * 不缓存，只序列化，和缓存的响应使用同样的返回类型
+     * @param response
+     * @return
+     */
+    public static ResponseEntity<byte[]> write(ServerResponse response) {
+        return toEntity(serialize(response));
+    }
+
+    public static Map<String, Object> snapshot() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> snapshot = Maps.newLinkedHashMap();
+        snapshot.put("catalogVersion", CatalogVersion.current());
+        snapshot.put("requestCount", stats.requestCount());
+        snapshot.put("hitCount", stats.hitCount());
+        snapshot.put("hitRate", stats.requestCount() == 0 ? null : stats.hitRate());
+        snapshot.put("size", cache.size());
+        snapshot.put("evictionCount", stats.evictionCount());
+        return snapshot;
+    }
+
+    private static byte[] serialize(ServerResponse response) {
+        try {
+            return objectMapper.writeValueAsBytes(response);
+        } catch (IOException e) {
+            log.error("serialize response error", e);
+            throw new IllegalStateException("serialize response error", e);
+        }
+    }
+
+    private static ResponseEntity<byte[]> toEntity(byte[] body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(JSON_UTF8);
+        headers.setContentLength(body.length);
+        return new ResponseEntity<byte[]>(body, headers, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,52 @@
+package com.mmall.common.cache;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Allen
+ * 同一个JVM内对同一个key的并发加载合并成一次，第一个线程执行加载，其他线程等待并共用它的结果(包括异常)
+ * 加载结束之后立即移除，不缓存结果，缓存由调用方负责
+ */
+public class SingleFlight<K, V> {
+
+    public interface Loader<V> {
+        V load() throws Throwable;
+    }
+
+    private final ConcurrentMap<K, SettableFuture<V>> inFlightMap = Maps.newConcurrentMap();
+    //等待其他线程加载结果的次数
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public V execute(K key, Loader<V> loader) throws Throwable {
+        SettableFuture<V> future = SettableFuture.create();
+        SettableFuture<V> inFlight = inFlightMap.putIfAbsent(key, future);
+        if (inFlight != null) {
+            coalescedCount.incrementAndGet();
+            try {
+                return Uninterruptibles.getUninterruptibly(inFlight);
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+        try {
+            V value = loader.load();
+            future.set(value);
+            return value;
+        } catch (Throwable t) {
+            future.setException(t);
+            throw t;
+        } finally {
+            inFlightMap.remove(key, future);
+        }
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
@@ -0,0 +1,479 @@
+package com.mmall.common.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.mmall.common.InvalidationBus;
+import com.mmall.common.RedisShardedPool;
+import com.mmall.util.PropertiesUtil;
+import com.mmall.util.RedisShardedAsyncUtil;
+import com.mmall.util.RedisShardedPoolUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Allen
+ * 两级缓存：有界的本地缓存(Guava，按LRU淘汰) + RedisShardedPool
+ * redis key是 cache:{名称:key}，删除时通过InvalidationBus通知其他节点删除本地缓存
+ * 防止回源期间的删除被旧值覆盖：
+ * redis中每个key有一个版本号 cache:{名称:key}:version，invalidate时先递增版本号再删除，
+ * 回源之前读取版本号，回写时在lua脚本中比较，版本号变化说明回源期间数据已经修改，放弃回写
+ * 本地缓存同样记录每个cache的失效次数，回源或者读取redis期间有过失效时不写入本地缓存
+ * 同名的cache只创建一次，配置以第一次使用时的@CacheAside和mmall.properties为准
+ * 防止缓存击穿：
+ * 1. 同一个JVM内同一个key的并发回源通过SingleFlight合并成一次
+ * 2. 开启lease时，多个节点之间通过RedisLease只让一个节点回源，其他节点短暂等待redis中出现新值
+ * 3. 配置了staleTtl时，redis中的值过了逻辑过期时间之后还会保留staleTtl秒，
+ *    拿到刷新权的请求回源，其他请求直接返回旧值，回源失败时同样返回旧值
+ */
+@Slf4j
+public class TwoLevelCache {
+
+    private static final String REDIS_KEY_PREFIX = "cache:";
+    private static final String INVALIDATION_TYPE = "cache";
+    //消息内容是 名称:key，cache名称中不能有":"
+    private static final String SEPARATOR = ":";
+    //redis中的值是 版本(1字节) + 逻辑过期时间(8字节，毫秒) + serializer的结果
+    private static final byte ENVELOPE_VERSION = 0x01;
+    private static final int ENVELOPE_HEADER_LENGTH = 9;
+    //租约的有效期要大于一次回源的耗时，等待租约的请求最多等待leaseWait之后自己回源
+    private static final long LEASE_MILLIS = Long.parseLong(PropertiesUtil.getProperty("cache.lease.millis", "3000"));
+    private static final long LEASE_WAIT_MILLIS = Long.parseLong(PropertiesUtil.getProperty("cache.lease.wait.millis", "300"));
+    private static final long LEASE_POLL_MILLIS = 20;
+    //版本号的有效期(秒)，要远大于一次回源的耗时
+    private static final int VERSION_EXPIRE = Integer.parseInt(PropertiesUtil.getProperty("cache.version.expire", "3600"));
+    private static final String VERSION_SUFFIX = ":version";
+    private static final String NO_VERSION = "0";
+    private static final String BUMP_VERSION_SCRIPT =
+            "local v = redis.call('incr', KEYS[1]) redis.call('expire', KEYS[1], ARGV[1]) return v";
+
+    public interface Loader {
+        //回源，也就是执行被缓存的方法
+        Object load() throws Throwable;
+
+        //返回false时结果不缓存
+        boolean cacheable(Object value);
+    }
+
+    private static ConcurrentMap<String, TwoLevelCache> registry = Maps.newConcurrentMap();
+
+    static {
+        InvalidationBus.register(INVALIDATION_TYPE, new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidate(String payload) {
+                String name = StringUtils.substringBefore(payload, SEPARATOR);
+                TwoLevelCache cache = registry.get(name);
+                if (cache != null) {
+                    cache.invalidateLocal(StringUtils.substringAfter(payload, SEPARATOR));
+                }
+            }
+        });
+    }
+
+    private final String name;
+    private final Cache<String, Object> localCache;
+    private final int redisTtl;
+    private final int staleTtl;
+    private final boolean lease;
+    private final CacheSerializer serializer;
+    private final SingleFlight<String, Object> singleFlight = new SingleFlight<String, Object>();
+    //正在刷新旧值的key，同一个节点上只有一个请求去拿租约
+    private final ConcurrentMap<String, Boolean> refreshingMap = Maps.newConcurrentMap();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong localHitCount = new AtomicLong();
+    private final AtomicLong redisHitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong leaseWaitCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong loadFailureCount = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong invalidateCount = new AtomicLong();
+    //本节点上这个cache的失效次数，包括其他节点通知的失效，写入本地缓存之前检查
+    private final AtomicLong localVersion = new AtomicLong();
+    private final AtomicLong discardedPutCount = new AtomicLong();
+
+    private TwoLevelCache(String name, int localTtl, int localSize, int redisTtl, int staleTtl, boolean lease, CacheSerializer serializer) {
+        this.name = name;
+        this.redisTtl = redisTtl;
+        this.staleTtl = Math.max(staleTtl, 0);
+        this.lease = lease;
+        this.serializer = serializer;
+        if (localTtl > 0 && localSize > 0) {
+            localCache = CacheBuilder.newBuilder()
+                    .maximumSize(localSize)
+                    .expireAfterWrite(localTtl, TimeUnit.SECONDS)
+                    .recordStats()
+                    .build();
+        } else {
+            localCache = null;
+        }
+    }
+
+    /**
+     * 获取或者创建@CacheAside对应的cache
+     * @param cacheAside
+     * @param serializer
+     * @return
+     */
+    public static TwoLevelCache getOrCreate(CacheAside cacheAside, CacheSerializer serializer) {
+        TwoLevelCache cache = registry.get(cacheAside.name());
+        if (cache == null) {
+            String prefix = "cache." + cacheAside.name() + ".";
+            int localTtl = Integer.parseInt(PropertiesUtil.getProperty(prefix + "local.ttl", String.valueOf(cacheAside.localTtl())));
+            int localSize = Integer.parseInt(PropertiesUtil.getProperty(prefix + "local.size", String.valueOf(cacheAside.localSize())));
+            int redisTtl = Integer.parseInt(PropertiesUtil.getProperty(prefix + "redis.ttl", String.valueOf(cacheAside.redisTtl())));
+            int staleTtl = Integer.parseInt(PropertiesUtil.getProperty(prefix + "stale.ttl", String.valueOf(cacheAside.staleTtl())));
+            boolean lease = Boolean.parseBoolean(PropertiesUtil.getProperty(prefix + "lease", String.valueOf(cacheAside.lease())));
+            registry.putIfAbsent(cacheAside.name(), new TwoLevelCache(cacheAside.name(), localTtl, localSize, redisTtl, staleTtl, lease, serializer));
+            cache = registry.get(cacheAside.name());
+        }
+        return cache;
+    }
+
+    /**
+     * 获取方法上@CacheAside对应的cache，用于不经过代理直接读写同一个cache，例如批量获取时逐个填充
+     * @param method 标注了@CacheAside的方法
+     * @return
+     */
+    public static TwoLevelCache getOrCreate(Method method) {
+        CacheAside cacheAside = method.getAnnotation(CacheAside.class);
+        if (cacheAside == null) {
+            throw new IllegalArgumentException(method + " is not annotated with @CacheAside");
+        }
+        try {
+            return getOrCreate(cacheAside, cacheAside.serializer().newInstance());
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("can not create " + cacheAside.serializer().getName(), e);
+        }
+    }
+
+    /**
+     * 依次查询本地缓存和redis，都没有命中时回源并回写两级缓存
+     * @param key
+     * @param type 反序列化使用的类型
+     * @param loader
+     * @return
+     * @throws Throwable 回源时的异常
+     */
+    public Object getOrLoad(final String key, final Type type, final Loader loader) throws Throwable {
+        requestCount.incrementAndGet();
+        if (localCache != null) {
+            Object value = localCache.getIfPresent(key);
+            if (value != null) {
+                localHitCount.incrementAndGet();
+                return value;
+            }
+        }
+        long localVersion = this.localVersion.get();
+        RedisValue redisValue = readRedis(key, type);
+        if (redisValue != null && !redisValue.isStale()) {
+            redisHitCount.incrementAndGet();
+            putLocal(key, redisValue.value, localVersion);
+            return redisValue.value;
+        }
+        if (redisValue != null) {
+            staleHitCount.incrementAndGet();
+            return refresh(key, redisValue.value, loader);
+        }
+        return singleFlight.execute(key, new SingleFlight.Loader<Object>() {
+            @Override
+            public Object load() throws Throwable {
+                return loadWithLease(key, type, loader);
+            }
+        });
+    }
+
+    //已经过了逻辑过期时间，拿到刷新权的请求回源，其他请求和回源失败时返回旧值
+    private Object refresh(String key, Object staleValue, Loader loader) {
+        if (refreshingMap.putIfAbsent(key, Boolean.TRUE) != null) {
+            return staleValue;
+        }
+        String token = null;
+        try {
+            if (lease) {
+                token = RedisLease.tryAcquire(redisKey(key), LEASE_MILLIS);
+                if (token == null) {
+                    return staleValue;
+                }
+            }
+            return loadAndPut(key, loader);
+        } catch (Throwable t) {
+            log.warn("cache {} refresh key:{} error, return stale value", name, key, t);
+            return staleValue;
+        } finally {
+            RedisLease.release(redisKey(key), token);
+            refreshingMap.remove(key);
+        }
+    }
+
+    //redis中没有值，开启lease时只有拿到租约的节点回源
+    private Object loadWithLease(String key, Type type, Loader loader) throws Throwable {
+        //redis不可用时拿不到租约，也不会有其他节点写入，直接回源
+        if (!lease || redisTtl <= 0 || !RedisShardedPoolUtil.isAvailable(redisKey(key))) {
+            return loadAndPut(key, loader);
+        }
+        String token = RedisLease.tryAcquire(redisKey(key), LEASE_MILLIS);
+        if (token == null) {
+            leaseWaitCount.incrementAndGet();
+            long deadline = System.currentTimeMillis() + LEASE_WAIT_MILLIS;
+            while (System.currentTimeMillis() < deadline) {
+                Uninterruptibles.sleepUninterruptibly(LEASE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                long localVersion = this.localVersion.get();
+                RedisValue redisValue = readRedis(key, type);
+                if (redisValue != null) {
+                    putLocal(key, redisValue.value, localVersion);
+                    return redisValue.value;
+                }
+            }
+            //拿到租约的节点可能已经宕机或者回源很慢，不再等待
+            return loadAndPut(key, loader);
+        }
+        try {
+            //拿到租约之前其他节点可能刚刚写入
+            long localVersion = this.localVersion.get();
+            RedisValue redisValue = readRedis(key, type);
+            if (redisValue != null && !redisValue.isStale()) {
+                putLocal(key, redisValue.value, localVersion);
+                return redisValue.value;
+            }
+            return loadAndPut(key, loader);
+        } finally {
+            RedisLease.release(redisKey(key), token);
+        }
+    }
+
+    //版本号要在回源之前读取，回源期间的修改和删除才能被发现
+    private Object loadAndPut(String key, Loader loader) throws Throwable {
+        long localVersion = this.localVersion.get();
+        String version = redisTtl > 0 ? StringUtils.defaultString(RedisShardedPoolUtil.get(versionKey(key)), NO_VERSION) : null;
+        long start = System.nanoTime();
+        Object value;
+        try {
+            value = loader.load();
+        } catch (Throwable t) {
+            recordLoad(System.nanoTime() - start, false);
+            throw t;
+        }
+        recordLoad(System.nanoTime() - start, true);
+        if (value != null && loader.cacheable(value)) {
+            put(key, value, version, localVersion);
+        }
+        return value;
+    }
+
+    private RedisValue readRedis(String key, Type type) {
+        if (redisTtl <= 0) {
+            return null;
+        }
+        return decode(RedisShardedPoolUtil.getBytes(redisKey(key)), type);
+    }
+
+    private RedisValue decode(byte[] bytes, Type type) {
+        if (bytes == null) {
+            return null;
+        }
+        long softExpireAt = Long.MAX_VALUE;
+        byte[] payload = bytes;
+        if (bytes.length >= ENVELOPE_HEADER_LENGTH && bytes[0] == ENVELOPE_VERSION) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.get();
+            softExpireAt = buffer.getLong();
+            payload = Arrays.copyOfRange(bytes, ENVELOPE_HEADER_LENGTH, bytes.length);
+        }
+        Object value = serializer.deserialize(payload, type);
+        return value == null ? null : new RedisValue(value, softExpireAt);
+    }
+
+    /**
+     * 批量读取两级缓存，不回源，本地缓存没有命中的key按分片分组，所有分片的mget同时发出再一起等待
+     * redis中已经过了逻辑过期时间的值视为没有命中，由调用方重新加载
+     * @param keys
+     * @param type 反序列化使用的类型
+     * @return 命中的key和value
+     */
+    public Map<String, Object> getAllPresent(List<String> keys, Type type) {
+        requestCount.addAndGet(keys.size());
+        long localVersion = this.localVersion.get();
+        Map<String, Object> valueMap = Maps.newHashMap();
+        List<String> missKeyList = Lists.newArrayList();
+        for (String key : keys) {
+            Object value = localCache == null ? null : localCache.getIfPresent(key);
+            if (value != null) {
+                localHitCount.incrementAndGet();
+                valueMap.put(key, value);
+            } else {
+                missKeyList.add(key);
+            }
+        }
+        if (missKeyList.isEmpty() || redisTtl <= 0) {
+            return valueMap;
+        }
+        List<String> redisKeyList = Lists.newArrayListWithCapacity(missKeyList.size());
+        for (String key : missKeyList) {
+            redisKeyList.add(redisKey(key));
+        }
+        //迁移模式下需要去旧节点查找，只能使用同步版本
+        List<byte[]> bytesList = RedisShardedPool.isMigrating() ? RedisShardedPoolUtil.mgetBytes(redisKeyList)
+                : Futures.getUnchecked(RedisShardedAsyncUtil.mgetBytes(redisKeyList));
+        if (bytesList == null) {
+            return valueMap;
+        }
+        for (int i = 0; i < missKeyList.size(); i++) {
+            RedisValue redisValue = decode(bytesList.get(i), type);
+            if (redisValue != null && !redisValue.isStale()) {
+                redisHitCount.incrementAndGet();
+                putLocal(missKeyList.get(i), redisValue.value, localVersion);
+                valueMap.put(missKeyList.get(i), redisValue.value);
+            }
+        }
+        return valueMap;
+    }
+
+    //读取之后本节点上这个cache有过失效时不写入，读到的可能是失效之前的旧值
+    private void putLocal(String key, Object value, long localVersion) {
+        if (localCache == null) {
+            return;
+        }
+        localCache.put(key, value);
+        //写入之后再检查一次，失效和写入同时发生时删除刚写入的值
+        if (this.localVersion.get() != localVersion) {
+            localCache.invalidate(key);
+            discardedPutCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * redis中的实际有效期是redisTtl + staleTtl，逻辑过期时间是redisTtl
+     * @param key
+     * @param value
+     * @param version      回源之前读取的redis版本号，和当前版本号不同时不写入
+     * @param localVersion 回源之前本地的失效次数
+     */
+    private void put(String key, Object value, String version, long localVersion) {
+        if (redisTtl > 0) {
+            byte[] payload = serializer.serialize(value);
+            if (payload != null) {
+                ByteBuffer buffer = ByteBuffer.allocate(ENVELOPE_HEADER_LENGTH + payload.length);
+                buffer.put(ENVELOPE_VERSION).putLong(System.currentTimeMillis() + redisTtl * 1000L).put(payload);
+                Long result = RedisShardedPoolUtil.setExIfVersion(redisKey(key), buffer.array(), redisTtl + staleTtl, versionKey(key), version);
+                if (result != null && result == 0) {
+                    discardedPutCount.incrementAndGet();
+                    return;
+                }
+            }
+        }
+        putLocal(key, value, localVersion);
+    }
+
+    private void invalidateLocal(String key) {
+        localVersion.incrementAndGet();
+        if (localCache != null) {
+            localCache.invalidate(key);
+        }
+    }
+
+    //记录一次回源，nanos是方法本身的耗时
+    private void recordLoad(long nanos, boolean success) {
+        loadCount.incrementAndGet();
+        loadNanos.addAndGet(nanos);
+        if (!success) {
+            loadFailureCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 删除redis和所有节点本地缓存中的key，本节点还没有使用过这个cache时也会删除redis
+     * 先递增版本号再删除，正在回源的请求回写时会发现版本号变化
+     * @param name
+     * @param key
+     */
+    public static void invalidate(String name, String key) {
+        TwoLevelCache cache = registry.get(name);
+        if (cache != null) {
+            cache.invalidateCount.incrementAndGet();
+            cache.invalidateLocal(key);
+        }
+        RedisShardedPoolUtil.eval(BUMP_VERSION_SCRIPT, Collections.singletonList(versionKey(name, key)),
+                Collections.singletonList(String.valueOf(VERSION_EXPIRE)));
+        RedisShardedPoolUtil.del(redisKey(name, key));
+        InvalidationBus.publish(INVALIDATION_TYPE, name + SEPARATOR + key);
+    }
+
+    private String redisKey(String key) {
+        return redisKey(name, key);
+    }
+
+    private String versionKey(String key) {
+        return versionKey(name, key);
+    }
+
+    //名称和key作为key tag，版本号和值在同一个分片上
+    private static String redisKey(String name, String key) {
+        return REDIS_KEY_PREFIX + "{" + name + SEPARATOR + key + "}";
+    }
+
+    private static String versionKey(String name, String key) {
+        return redisKey(name, key) + VERSION_SUFFIX;
+    }
+
+    public static Map<String, Map<String, Object>> snapshotAll() {
+        Map<String, Map<String, Object>> result = Maps.newTreeMap();
+        for (TwoLevelCache cache : registry.values()) {
+            result.put(cache.name, cache.snapshot());
+        }
+        return result;
+    }
+
+    private Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = Maps.newLinkedHashMap();
+        long requests = requestCount.get();
+        long hits = localHitCount.get() + redisHitCount.get();
+        snapshot.put("requestCount", requests);
+        snapshot.put("localHitCount", localHitCount.get());
+        snapshot.put("redisHitCount", redisHitCount.get());
+        snapshot.put("staleHitCount", staleHitCount.get());
+        snapshot.put("missCount", requests - hits - staleHitCount.get());
+        snapshot.put("hitRate", requests == 0 ? null : (double) hits / requests);
+        snapshot.put("loadCount", loadCount.get());
+        snapshot.put("loadFailureCount", loadFailureCount.get());
+        snapshot.put("coalescedCount", singleFlight.getCoalescedCount());
+        snapshot.put("leaseWaitCount", leaseWaitCount.get());
+        snapshot.put("avgLoadMillis", loadCount.get() == 0 ? null : TimeUnit.NANOSECONDS.toMillis(loadNanos.get()) / (double) loadCount.get());
+        snapshot.put("invalidateCount", invalidateCount.get());
+        snapshot.put("discardedPutCount", discardedPutCount.get());
+        if (localCache != null) {
+            snapshot.put("localSize", localCache.size());
+            snapshot.put("localEvictionCount", localCache.stats().evictionCount());
+        }
+        return snapshot;
+    }
+
+    private static class RedisValue {
+        private final Object value;
+        private final long softExpireAt;
+
+        RedisValue(Object value, long softExpireAt) {
+            this.value = value;
+            this.softExpireAt = softExpireAt;
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() >= softExpireAt;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.mmall.common.codec;
+
+import com.mmall.pojo.User;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Created by Allen
+ * avro二进制编码，第一个字节是版本号，后面是avro数据
+ * 只保存权限校验和页面展示需要的字段，question、answer、时间戳等不再放到session中
+ */
+@Slf4j
+public class AvroSessionCodec implements SessionCodec {
+
+    public static final byte VERSION = 0x01;
+
+    private static final Schema SCHEMA = SchemaBuilder.record("SessionUser").namespace("com.mmall.session")
+            .fields()
+            .optionalInt("id")
+            .optionalString("username")
+            .optionalString("email")
+            .optionalString("phone")
+            .optionalInt("role")
+            .endRecord();
+
+    //GenericDatumWriter和GenericDatumReader构造之后是线程安全的，可以共用
+    private static final GenericDatumWriter<GenericRecord> WRITER = new GenericDatumWriter<GenericRecord>(SCHEMA);
+    private static final GenericDatumReader<GenericRecord> READER = new GenericDatumReader<GenericRecord>(SCHEMA);
+
+    @Override
+    public byte[] encode(User user) {
+        GenericRecord record = new GenericData.Record(SCHEMA);
+        record.put("id", user.getId());
+        record.put("username", user.getUsername());
+        record.put("email", user.getEmail());
+        record.put("phone", user.getPhone());
+        record.put("role", user.getRole());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        try {
+            BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+            WRITER.write(record, encoder);
+            encoder.flush();
+        } catch (IOException e) {
+            log.error("avro encode user:{} error", user.getId(), e);
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public User decode(byte[] data) {
+        try {
+            BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, 1, data.length - 1, null);
+            GenericRecord record = READER.read(null, decoder);
+            User user = new User();
+            user.setId((Integer) record.get("id"));
+            user.setUsername(toStr(record.get("username")));
+            user.setEmail(toStr(record.get("email")));
+            user.setPhone(toStr(record.get("phone")));
+            user.setRole((Integer) record.get("role"));
+            return user;
+        } catch (Exception e) {
+            log.error("avro decode session error", e);
+            return null;
+        }
+    }
+
+    //avro读出来的字符串是Utf8类型
+    private static String toStr(Object value) {
+        return value == null ? null : value.toString();
+    }
+}
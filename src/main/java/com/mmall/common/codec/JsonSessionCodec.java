@@ -0,0 +1,26 @@
+package com.mmall.common.codec;
+
+import com.mmall.pojo.User;
+import com.mmall.util.JsonUtil;
+
+import java.nio.charset.Charset;
+
+/**
+ * Created by Allen
+ * 原来的json编码，没有版本字节，json对象总是以'{'开头，用来兼容已经存在的session
+ */
+public class JsonSessionCodec implements SessionCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public byte[] encode(User user) {
+        String userJsonStr = JsonUtil.obj2String(user);
+        return userJsonStr == null ? null : userJsonStr.getBytes(UTF_8);
+    }
+
+    @Override
+    public User decode(byte[] data) {
+        return JsonUtil.string2Obj(new String(data, UTF_8), User.class);
+    }
+}
@@ -0,0 +1,18 @@
+package com.mmall.common.codec;
+
+import com.mmall.pojo.User;
+
+/**
+ * Created by Allen
+ * redis中session value的编解码，具体使用哪种编码由SessionCodecs根据配置和首字节决定
+ */
+public interface SessionCodec {
+
+    byte[] encode(User user);
+
+    /**
+     * @param data 完整的value，包含版本字节
+     * @return 解析失败返回null
+     */
+    User decode(byte[] data);
+}
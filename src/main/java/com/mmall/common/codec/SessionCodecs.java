@@ -0,0 +1,42 @@
+package com.mmall.common.codec;
+
+import com.mmall.pojo.User;
+import com.mmall.util.PropertiesUtil;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by Allen
+ * 写入时使用session.codec配置的编码，读取时根据首字节识别编码，新旧两种格式可以同时存在
+ * 上线时先保持json写入，所有节点都能读avro之后再切换成avro
+ */
+@Slf4j
+public class SessionCodecs {
+
+    public static final String JSON = "json";
+    public static final String AVRO = "avro";
+
+    private static final byte JSON_START = '{';
+
+    private static final SessionCodec JSON_CODEC = new JsonSessionCodec();
+    private static final SessionCodec AVRO_CODEC = new AvroSessionCodec();
+
+    private static final SessionCodec WRITE_CODEC = AVRO.equals(PropertiesUtil.getProperty("session.codec", JSON)) ? AVRO_CODEC : JSON_CODEC;
+
+    public static byte[] encode(User user) {
+        return WRITE_CODEC.encode(user);
+    }
+
+    public static User decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        if (data[0] == JSON_START) {
+            return JSON_CODEC.decode(data);
+        }
+        if (data[0] == AvroSessionCodec.VERSION) {
+            return AVRO_CODEC.decode(data);
+        }
+        log.warn("unknown session codec version:{}", data[0]);
+        return null;
+    }
+}
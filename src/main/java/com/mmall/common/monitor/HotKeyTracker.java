@@ -0,0 +1,161 @@
+package com.mmall.common.monitor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Created by Allen
+ * 热点key统计，按1/sampleInterval的概率抽样，抽中的访问计入key和key所在分片
+ * key的计数使用Space-Saving算法：最多保留capacity个计数器，满了之后替换计数最小的key，
+ * 新key的计数从被替换的最小值开始，error记录这部分可能高估的次数，真正的热点key一定会留在里面
+ * 统计按window秒滚动，查询时返回上一个完整窗口和当前窗口的结果
+ */
+public class HotKeyTracker {
+
+    private final int sampleInterval;
+    private final int capacity;
+    private final long windowMillis;
+    private final List<String> shardList;
+
+    private Map<String, Counter> keyCounterMap;
+    private Map<String, Long> shardCountMap;
+    private long windowStart;
+    private Map<String, Object> previousWindow;
+
+    /**
+     * @param sampleInterval 每sampleInterval次访问抽样一次
+     * @param capacity       保留的key计数器个数
+     * @param windowSeconds  统计窗口
+     * @param shardList      所有分片，没有被访问到的分片也参与倾斜度的计算
+     */
+    public HotKeyTracker(int sampleInterval, int capacity, int windowSeconds, Collection<String> shardList) {
+        this.sampleInterval = Math.max(sampleInterval, 1);
+        this.capacity = capacity;
+        this.windowMillis = windowSeconds * 1000L;
+        this.shardList = Lists.newArrayList(shardList);
+        resetWindow(System.currentTimeMillis());
+    }
+
+    //调用方先判断是否抽中，抽中之后再计算key所在的分片
+    public boolean shouldSample() {
+        return sampleInterval == 1 || ThreadLocalRandom.current().nextInt(sampleInterval) == 0;
+    }
+
+    public synchronized void record(String key, String shard) {
+        roll(System.currentTimeMillis());
+        Long shardCount = shardCountMap.get(shard);
+        shardCountMap.put(shard, shardCount == null ? 1L : shardCount + 1);
+
+        Counter counter = keyCounterMap.get(key);
+        if (counter != null) {
+            counter.count++;
+            return;
+        }
+        if (keyCounterMap.size() < capacity) {
+            keyCounterMap.put(key, new Counter(key, 1, 0));
+            return;
+        }
+        //capacity通常只有几百，线性查找最小值的开销可以接受，并且只有抽中的访问才会走到这里
+        Counter min = null;
+        for (Counter c : keyCounterMap.values()) {
+            if (min == null || c.count < min.count) {
+                min = c;
+            }
+        }
+        keyCounterMap.remove(min.key);
+        keyCounterMap.put(key, new Counter(key, min.count + 1, min.count));
+    }
+
+    /**
+     * @param top 返回计数最高的前top个key
+     * @return
+     */
+    public synchronized Map<String, Object> snapshot(int top) {
+        roll(System.currentTimeMillis());
+        Map<String, Object> result = Maps.newLinkedHashMap();
+        result.put("sampleInterval", sampleInterval);
+        result.put("windowSeconds", windowMillis / 1000);
+        result.put("current", snapshotWindow(top));
+        result.put("previous", previousWindow == null ? null : limit(previousWindow, top));
+        return result;
+    }
+
+    //当前窗口结束之后滚动，中间有整个窗口没有访问时上一个窗口为空
+    private void roll(long now) {
+        if (now - windowStart < windowMillis) {
+            return;
+        }
+        previousWindow = now - windowStart < windowMillis * 2 ? snapshotWindow(Integer.MAX_VALUE) : null;
+        resetWindow(now - (now - windowStart) % windowMillis);
+    }
+
+    private void resetWindow(long now) {
+        windowStart = now;
+        keyCounterMap = Maps.newHashMapWithExpectedSize(capacity);
+        shardCountMap = Maps.newLinkedHashMap();
+        for (String shard : shardList) {
+            shardCountMap.put(shard, 0L);
+        }
+    }
+
+    private Map<String, Object> snapshotWindow(int top) {
+        List<Counter> counterList = Lists.newArrayList(keyCounterMap.values());
+        Collections.sort(counterList, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter o1, Counter o2) {
+                return Long.compare(o2.count, o1.count);
+            }
+        });
+        List<Map<String, Object>> hotKeyList = Lists.newArrayList();
+        for (Counter counter : counterList.subList(0, Math.min(top, counterList.size()))) {
+            Map<String, Object> hotKey = Maps.newLinkedHashMap();
+            hotKey.put("key", counter.key);
+            hotKey.put("sampledCount", counter.count);
+            hotKey.put("error", counter.error);
+            //按抽样比例估算的实际访问次数
+            hotKey.put("estimatedCount", counter.count * sampleInterval);
+            hotKeyList.add(hotKey);
+        }
+
+        long total = 0;
+        long max = 0;
+        for (Long count : shardCountMap.values()) {
+            total += count;
+            max = Math.max(max, count);
+        }
+        Map<String, Object> window = Maps.newLinkedHashMap();
+        window.put("windowStart", windowStart);
+        window.put("hotKeys", hotKeyList);
+        window.put("shards", Maps.newLinkedHashMap(shardCountMap));
+        //访问最多的分片和平均值的比例，1表示完全均匀
+        window.put("shardSkew", total == 0 ? null : (double) max * shardCountMap.size() / total);
+        return window;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> limit(Map<String, Object> window, int top) {
+        List<Map<String, Object>> hotKeyList = (List<Map<String, Object>>) window.get("hotKeys");
+        Map<String, Object> result = Maps.newLinkedHashMap(window);
+        result.put("hotKeys", hotKeyList.subList(0, Math.min(top, hotKeyList.size())));
+        return result;
+    }
+
+    private static class Counter {
+        private final String key;
+        private long count;
+        private final long error;
+
+        Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
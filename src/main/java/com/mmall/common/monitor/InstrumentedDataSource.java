@@ -0,0 +1,49 @@
+package com.mmall.common.monitor;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Created by Allen
+ * 统计获取数据库连接等待时间的BasicDataSource，配置在applicationContext-datasource.xml中
+ * 当前配置只在空闲检查时校验连接(testWhileIdle)，获取连接时没有校验的开销
+ */
+public class InstrumentedDataSource extends BasicDataSource {
+
+    private final PoolMetrics metrics = PoolMetrics.register("dbcp");
+
+    public InstrumentedDataSource() {
+        metrics.setPoolStats(new PoolMetrics.PoolStats() {
+            @Override
+            public boolean isExhausted() {
+                return connectionPool != null && connectionPool.getNumIdle() == 0
+                        && connectionPool.getNumActive() >= maxActive;
+            }
+
+            @Override
+            public void fill(Map<String, Object> snapshot) {
+                snapshot.put("maxActive", maxActive);
+                snapshot.put("numActive", connectionPool == null ? 0 : connectionPool.getNumActive());
+                snapshot.put("numIdle", connectionPool == null ? 0 : connectionPool.getNumIdle());
+                snapshot.put("maxWait", maxWait);
+            }
+        });
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        boolean exhausted = metrics.isExhausted();
+        long start = System.nanoTime();
+        try {
+            Connection connection = super.getConnection();
+            metrics.recordBorrow(System.nanoTime() - start, exhausted);
+            return connection;
+        } catch (SQLException e) {
+            metrics.recordBorrowFail();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.mmall.common.monitor;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+
+/**
+ * Created by Allen
+ * 包装commons-pool2的PooledObjectFactory，统计testOnBorrow等校验(jedis中是PING)的耗时和失败次数
+ */
+public class InstrumentedPooledObjectFactory<T> implements PooledObjectFactory<T> {
+
+    private final PooledObjectFactory<T> delegate;
+    private final PoolMetrics metrics;
+
+    public InstrumentedPooledObjectFactory(PooledObjectFactory<T> delegate, PoolMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public PooledObject<T> makeObject() throws Exception {
+        return delegate.makeObject();
+    }
+
+    @Override
+    public void destroyObject(PooledObject<T> p) throws Exception {
+        delegate.destroyObject(p);
+    }
+
+    @Override
+    public boolean validateObject(PooledObject<T> p) {
+        long start = System.nanoTime();
+        boolean valid = false;
+        try {
+            valid = delegate.validateObject(p);
+            return valid;
+        } finally {
+            metrics.recordValidation(System.nanoTime() - start, valid);
+        }
+    }
+
+    @Override
+    public void activateObject(PooledObject<T> p) throws Exception {
+        delegate.activateObject(p);
+    }
+
+    @Override
+    public void passivateObject(PooledObject<T> p) throws Exception {
+        delegate.passivateObject(p);
+    }
+}
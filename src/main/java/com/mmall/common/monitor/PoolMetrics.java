@@ -0,0 +1,173 @@
+package com.mmall.common.monitor;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by Allen
+ * 连接池的监控数据：获取连接等待时间的直方图、耗尽次数、获取失败次数、归还坏连接次数、借出时校验的耗时和失败次数
+ * 活跃数、空闲数等实时数据由各个连接池通过PoolStats提供
+ */
+public class PoolMetrics {
+
+    //直方图每个区间的上限，单位毫秒，最后一个区间是大于最大值的部分
+    private static final long[] BUCKET_BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 2000};
+
+    private static ConcurrentMap<String, PoolMetrics> registry = Maps.newConcurrentMap();
+
+    public interface PoolStats {
+        //当前没有空闲连接并且借出的连接已经达到上限，此时获取连接需要等待
+        boolean isExhausted();
+
+        //把连接池自身的实时数据放到监控结果中
+        void fill(Map<String, Object> snapshot);
+    }
+
+    /**
+     * commons-pool2连接池(jedis使用)的实时数据
+     * @param pool
+     * @return
+     */
+    public static PoolStats poolStats(final GenericObjectPool<?> pool) {
+        return new PoolStats() {
+            @Override
+            public boolean isExhausted() {
+                return pool.getNumIdle() == 0 && pool.getNumActive() >= pool.getMaxTotal();
+            }
+
+            @Override
+            public void fill(Map<String, Object> snapshot) {
+                snapshot.put("maxTotal", pool.getMaxTotal());
+                snapshot.put("numActive", pool.getNumActive());
+                snapshot.put("numIdle", pool.getNumIdle());
+                snapshot.put("numWaiters", pool.getNumWaiters());
+                snapshot.put("createdCount", pool.getCreatedCount());
+                snapshot.put("destroyedCount", pool.getDestroyedCount());
+                snapshot.put("destroyedByBorrowValidationCount", pool.getDestroyedByBorrowValidationCount());
+            }
+        };
+    }
+
+    private final String name;
+    private volatile PoolStats poolStats;
+
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+    private final AtomicLong borrowFailCount = new AtomicLong();
+    private final AtomicLong brokenReturnCount = new AtomicLong();
+    private final AtomicLong validationCount = new AtomicLong();
+    private final AtomicLong validationNanos = new AtomicLong();
+    private final AtomicLong validationFailCount = new AtomicLong();
+
+    private PoolMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 获取或者创建一个连接池的监控，同名的连接池共用一个
+     * @param name
+     * @return
+     */
+    public static PoolMetrics register(String name) {
+        PoolMetrics metrics = registry.get(name);
+        if (metrics == null) {
+            registry.putIfAbsent(name, new PoolMetrics(name));
+            metrics = registry.get(name);
+        }
+        return metrics;
+    }
+
+    public static Map<String, Map<String, Object>> snapshotAll() {
+        Map<String, Map<String, Object>> result = Maps.newTreeMap();
+        for (PoolMetrics metrics : registry.values()) {
+            result.put(metrics.name, metrics.snapshot());
+        }
+        return result;
+    }
+
+    public void setPoolStats(PoolStats poolStats) {
+        this.poolStats = poolStats;
+    }
+
+    public boolean isExhausted() {
+        PoolStats stats = poolStats;
+        return stats != null && stats.isExhausted();
+    }
+
+    public void recordBorrow(long nanos, boolean exhausted) {
+        borrowCount.incrementAndGet();
+        waitNanos.addAndGet(nanos);
+        long max = maxWaitNanos.get();
+        while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+            max = maxWaitNanos.get();
+        }
+        waitHistogram.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMillis(nanos)));
+        if (exhausted) {
+            exhaustedCount.incrementAndGet();
+        }
+    }
+
+    public void recordBorrowFail() {
+        borrowFailCount.incrementAndGet();
+    }
+
+    public void recordBrokenReturn() {
+        brokenReturnCount.incrementAndGet();
+    }
+
+    public void recordValidation(long nanos, boolean valid) {
+        validationCount.incrementAndGet();
+        validationNanos.addAndGet(nanos);
+        if (!valid) {
+            validationFailCount.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = Maps.newLinkedHashMap();
+        PoolStats stats = poolStats;
+        if (stats != null) {
+            stats.fill(snapshot);
+        }
+        long borrows = borrowCount.get();
+        snapshot.put("borrowCount", borrows);
+        snapshot.put("meanWaitMicros", borrows == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos.get()) / borrows);
+        snapshot.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+        snapshot.put("waitHistogram", histogram());
+        snapshot.put("exhaustedCount", exhaustedCount.get());
+        snapshot.put("borrowFailCount", borrowFailCount.get());
+        snapshot.put("brokenReturnCount", brokenReturnCount.get());
+        long validations = validationCount.get();
+        snapshot.put("validationCount", validations);
+        snapshot.put("meanValidationMicros", validations == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(validationNanos.get()) / validations);
+        snapshot.put("validationFailCount", validationFailCount.get());
+        return snapshot;
+    }
+
+    private Map<String, Long> histogram() {
+        Map<String, Long> histogram = Maps.newLinkedHashMap();
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            histogram.put("<=" + BUCKET_BOUNDS[i] + "ms", waitHistogram.get(i));
+        }
+        histogram.put(">" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1] + "ms", waitHistogram.get(BUCKET_BOUNDS.length));
+        return histogram;
+    }
+
+    private static int bucket(long millis) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (millis <= BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+}
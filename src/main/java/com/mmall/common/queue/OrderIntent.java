@@ -0,0 +1,38 @@
+package com.mmall.common.queue;
+
+import com.mmall.pojo.OrderItem;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Allen
+ * 异步下单时放入OrderQueue的下单请求，包含下单时已经校验过的订单明细，worker按这里的内容生成订单
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderIntent {
+    private Long orderNo;
+
+    private Integer userId;
+
+    private Integer shippingId;
+
+    //下单时的商品名称、价格和数量
+    private List<OrderItem> orderItemList;
+
+    //生成订单之后删除的购物车
+    private List<Integer> cartIdList;
+
+    //已经在redis中预扣库存的秒杀商品和数量
+    private Map<Integer, Integer> flashSaleMap;
+
+    //下单时已经扣减数据库库存的普通商品和数量，订单没有生成时归还
+    private Map<Integer, Integer> reservedStockMap;
+}
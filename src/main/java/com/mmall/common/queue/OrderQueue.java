@@ -0,0 +1,180 @@
+package com.mmall.common.queue;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mmall.util.JsonUtil;
+import com.mmall.util.PropertiesUtil;
+import com.mmall.util.RedisShardedPoolUtil;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Allen
+ * 异步下单的队列，保存在redis中，所有key使用相同的{order_queue}，在同一个分片上，用lua脚本原子修改：
+ * pending      等待处理的下单请求，lpush放入，从尾部取出
+ * processing   已经被worker取走还没有处理完的请求，score是取走的时间，worker宕机时超时之后放回pending
+ *              score同时作为取走时的凭证，超时之后被其他worker重新取走时score变化，原来的worker不能再finish
+ * status:订单号 userId|处理结果，处理中为空字符串，失败时是失败原因，成功之后删除
+ * user:用户id  用户正在处理中的订单号，同一个用户同时只能有一个排队中的订单，防止重复提交
+ */
+@Component
+@Slf4j
+public class OrderQueue {
+
+    //status中表示处理中
+    public static final String PROCESSING = "";
+
+    private static final String PENDING_KEY = "{order_queue}:pending";
+    private static final String PROCESSING_KEY = "{order_queue}:processing";
+    private static final String STATUS_KEY_PREFIX = "{order_queue}:status:";
+    private static final String USER_KEY_PREFIX = "{order_queue}:user:";
+    private static final String SEPARATOR = "|";
+
+    //关闭时不接受异步下单，开启时至少要有一个节点配置order.queue.worker.threads，否则预扣的库存不会被处理
+    private static final boolean ENABLED = Boolean.parseBoolean(PropertiesUtil.getProperty("order.queue.enabled", "false"));
+    //status保留的时间，单位是秒，客户端在这段时间内可以查到失败原因
+    private static final int STATUS_EXPIRE = Integer.parseInt(PropertiesUtil.getProperty("order.queue.status.expire", "3600"));
+    //worker取走之后超过这个时间没有处理完，认为worker已经宕机，单位是毫秒
+    private static final long PROCESSING_TIMEOUT = Long.parseLong(PropertiesUtil.getProperty("order.queue.processing.timeout", "60000"));
+
+    //0表示用户有正在处理中的订单
+    private static final String OFFER_SCRIPT =
+            "if not redis.call('set', KEYS[3], ARGV[1], 'NX', 'EX', ARGV[4]) then return 0 end " +
+            "redis.call('set', KEYS[2], ARGV[2], 'EX', ARGV[4]) " +
+            "redis.call('lpush', KEYS[1], ARGV[3]) " +
+            "return 1";
+
+    private static final String CLAIM_SCRIPT =
+            "local items = redis.call('lrange', KEYS[1], -tonumber(ARGV[1]), -1) " +
+            "local n = #items " +
+            "if n == 0 then return items end " +
+            "redis.call('ltrim', KEYS[1], 0, -n - 1) " +
+            "for i = 1, n do redis.call('zadd', KEYS[2], ARGV[2], items[i]) end " +
+            "return items";
+
+    //ARGV[2]为空表示处理成功，ARGV[5]是取走时的score，已经被其他worker重新取走时返回0，不修改任何key
+    private static final String FINISH_SCRIPT =
+            "local score = redis.call('zscore', KEYS[1], ARGV[1]) " +
+            "if not score or tonumber(score) ~= tonumber(ARGV[5]) then return 0 end " +
+            "redis.call('zrem', KEYS[1], ARGV[1]) " +
+            "if ARGV[2] == '' then redis.call('del', KEYS[2]) else redis.call('set', KEYS[2], ARGV[2], 'EX', ARGV[4]) end " +
+            "if redis.call('get', KEYS[3]) == ARGV[3] then redis.call('del', KEYS[3]) end " +
+            "return 1";
+
+    //放回pending的尾部，下一次最先被取走
+    private static final String RECOVER_SCRIPT =
+            "local items = redis.call('zrangebyscore', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, 100) " +
+            "for i = 1, #items do " +
+            "redis.call('zrem', KEYS[2], items[i]) " +
+            "redis.call('rpush', KEYS[1], items[i]) " +
+            "end " +
+            "return #items";
+
+    /**
+     * 一次claim取走的请求
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Claim {
+        //取走的时间，finish时作为凭证
+        private final long token;
+
+        //原始的消息和解析之后的请求，按放入的顺序排列
+        private final Map<String, OrderIntent> intentMap;
+    }
+
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 放入队列
+     * @param intent
+     * @return 1成功，0用户有正在处理中的订单，null表示redis不可用
+     */
+    public Long offer(OrderIntent intent) {
+        Object result = RedisShardedPoolUtil.eval(OFFER_SCRIPT,
+                Lists.newArrayList(PENDING_KEY, statusKey(intent.getOrderNo()), USER_KEY_PREFIX + intent.getUserId()),
+                Lists.newArrayList(String.valueOf(intent.getOrderNo()), intent.getUserId() + SEPARATOR + PROCESSING,
+                        JsonUtil.obj2String(intent), String.valueOf(STATUS_EXPIRE)));
+        return (Long) result;
+    }
+
+    /**
+     * 取走最多batchSize个请求，处理完之后调用finish
+     * @param batchSize
+     * @return redis不可用时intentMap为空
+     */
+    public Claim claim(int batchSize) {
+        long token = System.currentTimeMillis();
+        Map<String, OrderIntent> intentMap = Maps.newLinkedHashMap();
+        Object result = RedisShardedPoolUtil.eval(CLAIM_SCRIPT, Lists.newArrayList(PENDING_KEY, PROCESSING_KEY),
+                Lists.newArrayList(String.valueOf(batchSize), String.valueOf(token)));
+        if (result != null) {
+            //lrange返回的顺序是从新到旧
+            for (String payload : Lists.reverse((List<String>) result)) {
+                intentMap.put(payload, JsonUtil.string2Obj(payload, OrderIntent.class));
+            }
+        }
+        return new Claim(token, intentMap);
+    }
+
+    /**
+     * 处理完成，从processing中删除并记录结果
+     * @param token       claim返回的凭证
+     * @param payload     claim返回的原始消息
+     * @param intent
+     * @param failMessage 成功时为null
+     * @return 是否记录了处理结果，false表示redis不可用或者已经超时被其他worker取走，请求由其他worker完成
+     */
+    public boolean finish(long token, String payload, OrderIntent intent, String failMessage) {
+        Object result = RedisShardedPoolUtil.eval(FINISH_SCRIPT,
+                Lists.newArrayList(PROCESSING_KEY, statusKey(intent.getOrderNo()), USER_KEY_PREFIX + intent.getUserId()),
+                Lists.newArrayList(payload, failMessage == null ? "" : intent.getUserId() + SEPARATOR + failMessage,
+                        String.valueOf(intent.getOrderNo()), String.valueOf(STATUS_EXPIRE), String.valueOf(token)));
+        if (result == null) {
+            //超时之后会被重新处理，订单已经存在时直接完成
+            log.error("order queue finish error orderNo:{}", intent.getOrderNo());
+            return false;
+        }
+        if ((Long) result == 0) {
+            log.warn("order queue finish ignored, intent reclaimed by another worker orderNo:{}", intent.getOrderNo());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param userId
+     * @param orderNo
+     * @return null表示没有排队中的订单或者不是这个用户的订单，PROCESSING表示处理中，其他为失败原因
+     */
+    public String status(Integer userId, Long orderNo) {
+        String status = RedisShardedPoolUtil.get(statusKey(orderNo));
+        String prefix = userId + SEPARATOR;
+        if (status == null || !status.startsWith(prefix)) {
+            return null;
+        }
+        return status.substring(prefix.length());
+    }
+
+    //worker宕机时留在processing中的请求重新放回pending
+    @Scheduled(cron = "*/10 * * * * ?")//每10秒
+    public void recover() {
+        Object result = RedisShardedPoolUtil.eval(RECOVER_SCRIPT, Lists.newArrayList(PENDING_KEY, PROCESSING_KEY),
+                Lists.newArrayList(String.valueOf(System.currentTimeMillis() - PROCESSING_TIMEOUT)));
+        if (result != null && (Long) result > 0) {
+            log.warn("order queue recovered {} timeout intents", result);
+        }
+    }
+
+    private static String statusKey(Long orderNo) {
+        return STATUS_KEY_PREFIX + orderNo;
+    }
+}
@@ -0,0 +1,301 @@
+package com.mmall.common.search;
+
+import com.github.pagehelper.Page;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mmall.common.InvalidationBus;
+import com.mmall.dao.ProductMapper;
+import com.mmall.pojo.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Created by Allen
+ * 商品名称和副标题的内存倒排索引，代替 name like '%keyword%' or subtitle like '%keyword%' 的全表扫描
+ * 按字切分，每个字和相邻两个字组成的词都建立倒排表，中文不需要分词
+ * 查询时取关键字的所有二元词(只有一个字时取这个字)求交集，再用contains校验
+ * 匹配规则和索引没有构建好时回退的数据库查询一致：名称或副标题包含关键字，不区分大小写，关键字去掉首尾空格
+ * 启动时从数据库全量构建，后台修改商品之后按productId增量更新，并通过InvalidationBus通知其他节点
+ * pub/sub的消息可能丢失，定时全量重建一次兜底
+ * 索引只返回商品id，商品信息由调用方从缓存中获取
+ */
+@Component
+@Slf4j
+public class ProductSearchIndex {
+
+    private static final String INVALIDATION_TYPE = "productSearch";
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Map<Integer, Document> documentMap = Maps.newHashMap();
+    //词 -> 包含这个词的商品id
+    private Map<String, Set<Integer>> postingMap = Maps.newHashMap();
+
+    private volatile boolean ready;
+    //全量构建期间增量更新过的商品，构建完成之后重新加载
+    private volatile Set<Integer> updatedWhileRebuilding;
+
+    @PostConstruct
+    public void init() {
+        InvalidationBus.register(INVALIDATION_TYPE, new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidate(String payload) {
+                reload(Integer.parseInt(payload));
+            }
+        });
+        rebuild();
+    }
+
+    @Scheduled(cron = "0 */10 * * * ?")//每10分钟
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        updatedWhileRebuilding = Sets.newConcurrentHashSet();
+        try {
+            Map<Integer, Document> newDocumentMap = Maps.newHashMap();
+            Map<String, Set<Integer>> newPostingMap = Maps.newHashMap();
+            for (Product product : productMapper.selectList()) {
+                Document document = new Document(product);
+                newDocumentMap.put(document.id, document);
+                addPostings(newPostingMap, document);
+            }
+            lock.writeLock().lock();
+            try {
+                documentMap = newDocumentMap;
+                postingMap = newPostingMap;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("product search index rebuilt, products:{} terms:{} cost:{}ms",
+                    newDocumentMap.size(), newPostingMap.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            //构建失败时保留原来的索引，还没有构建成功过时调用方回退到数据库查询
+            log.error("product search index rebuild error", e);
+        } finally {
+            Set<Integer> updatedIdSet = updatedWhileRebuilding;
+            updatedWhileRebuilding = null;
+            for (Integer productId : updatedIdSet) {
+                reload(productId);
+            }
+        }
+    }
+
+    /**
+     * 商品新增、修改之后调用，更新本节点的索引并通知其他节点
+     * @param productId
+     */
+    public void update(Integer productId) {
+        if (productId == null) {
+            return;
+        }
+        reload(productId);
+        InvalidationBus.publish(INVALIDATION_TYPE, String.valueOf(productId));
+    }
+
+    private void reload(Integer productId) {
+        Set<Integer> updatedIdSet = updatedWhileRebuilding;
+        if (updatedIdSet != null) {
+            updatedIdSet.add(productId);
+        }
+        Product product = productMapper.selectByPrimaryKeyLazyDetail(productId);
+        lock.writeLock().lock();
+        try {
+            Document old = documentMap.remove(productId);
+            if (old != null) {
+                removePostings(old);
+            }
+            if (product != null) {
+                Document document = new Document(product);
+                documentMap.put(productId, document);
+                addPostings(postingMap, document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @param keyword       为空时不按关键字过滤
+     * @param categoryIdSet 为null时不按分类过滤
+     * @param status        为null时不按状态过滤
+     * @param orderBy       price_asc、price_desc，其他按id升序
+     * @param pageNum
+     * @param pageSize
+     * @return 当前页的商品id，total是符合条件的总数
+     */
+    public Page<Integer> search(String keyword, Collection<Integer> categoryIdSet, Integer status, String orderBy, int pageNum, int pageSize) {
+        String query = normalize(keyword);
+        List<Document> matchList = Lists.newArrayList();
+        lock.readLock().lock();
+        try {
+            for (Document document : candidates(query)) {
+                if (status != null && !status.equals(document.status)) {
+                    continue;
+                }
+                if (categoryIdSet != null && !categoryIdSet.contains(document.categoryId)) {
+                    continue;
+                }
+                if (query.length() > 0 && !document.contains(query)) {
+                    continue;
+                }
+                matchList.add(document);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.sort(matchList, comparator(orderBy));
+
+        pageNum = Math.max(pageNum, 1);
+        pageSize = Math.max(pageSize, 1);
+        Page<Integer> page = new Page<Integer>(pageNum, pageSize);
+        page.setTotal(matchList.size());
+        int from = (int) Math.min((long) (pageNum - 1) * pageSize, matchList.size());
+        int to = Math.min(from + pageSize, matchList.size());
+        for (Document document : matchList.subList(from, to)) {
+            page.add(document.id);
+        }
+        return page;
+    }
+
+    //倒排表中最短的那个作为候选集，其余的词用contains判断
+    private Collection<Document> candidates(String query) {
+        if (query.length() == 0) {
+            return documentMap.values();
+        }
+        Set<Integer> shortest = null;
+        for (String term : split(query, query.length() == 1)) {
+            Set<Integer> idSet = postingMap.get(term);
+            if (idSet == null) {
+                return Collections.emptyList();
+            }
+            if (shortest == null || idSet.size() < shortest.size()) {
+                shortest = idSet;
+            }
+        }
+        List<Document> documentList = Lists.newArrayListWithCapacity(shortest.size());
+        for (Integer id : shortest) {
+            documentList.add(documentMap.get(id));
+        }
+        return documentList;
+    }
+
+    private Comparator<Document> comparator(String orderBy) {
+        final int direction;
+        if ("price_asc".equals(orderBy)) {
+            direction = 1;
+        } else if ("price_desc".equals(orderBy)) {
+            direction = -1;
+        } else {
+            direction = 0;
+        }
+        return new Comparator<Document>() {
+            @Override
+            public int compare(Document o1, Document o2) {
+                if (direction != 0) {
+                    int result = o1.price.compareTo(o2.price) * direction;
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return o1.id.compareTo(o2.id);
+            }
+        };
+    }
+
+    private void addPostings(Map<String, Set<Integer>> postingMap, Document document) {
+        for (String term : document.terms()) {
+            Set<Integer> idSet = postingMap.get(term);
+            if (idSet == null) {
+                idSet = Sets.newHashSet();
+                postingMap.put(term, idSet);
+            }
+            idSet.add(document.id);
+        }
+    }
+
+    private void removePostings(Document document) {
+        for (String term : document.terms()) {
+            Set<Integer> idSet = postingMap.get(term);
+            if (idSet != null) {
+                idSet.remove(document.id);
+                if (idSet.isEmpty()) {
+                    postingMap.remove(term);
+                }
+            }
+        }
+    }
+
+    //和mysql默认的排序规则一样不区分大小写
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase();
+    }
+
+    /**
+     * @param text    已经normalize过的文本
+     * @param unigram 是否包含单个字
+     * @return
+     */
+    private static Set<String> split(String text, boolean unigram) {
+        Set<String> termSet = Sets.newHashSet();
+        for (int i = 0; i < text.length(); i++) {
+            if (unigram) {
+                termSet.add(text.substring(i, i + 1));
+            }
+            if (i + 2 <= text.length()) {
+                termSet.add(text.substring(i, i + 2));
+            }
+        }
+        return termSet;
+    }
+
+    private static class Document {
+        private final Integer id;
+        private final Integer categoryId;
+        private final Integer status;
+        private final BigDecimal price;
+        private final String name;
+        private final String subtitle;
+
+        Document(Product product) {
+            this.id = product.getId();
+            this.categoryId = product.getCategoryId();
+            this.status = product.getStatus();
+            this.price = product.getPrice() == null ? BigDecimal.ZERO : product.getPrice();
+            this.name = normalize(product.getName());
+            this.subtitle = normalize(product.getSubtitle());
+        }
+
+        //名称和副标题分别切分，不会产生跨越两个字段的词
+        Set<String> terms() {
+            Set<String> termSet = split(name, true);
+            termSet.addAll(split(subtitle, true));
+            return termSet;
+        }
+
+        boolean contains(String query) {
+            return StringUtils.contains(name, query) || StringUtils.contains(subtitle, query);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.mmall.common.stock;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mmall.common.ServerResponse;
+import com.mmall.dao.ProductMapper;
+import com.mmall.pojo.Product;
+import com.mmall.util.PropertiesUtil;
+import com.mmall.util.RedisShardedPoolUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by Allen
+ * 秒杀商品的redis库存，下单时先在redis中预扣，库存不足的请求不会访问数据库的库存
+ * 每个商品三个key，使用相同的{productId}保证在同一个分片上，可以在一个lua脚本中修改：
+ * stock    秒杀期间的剩余库存，存在说明商品正在秒杀
+ * pending  已经预扣但还没有同步到数据库的数量，定时任务每秒取出之后一次update扣减数据库库存
+ * closed   秒杀结束之后的剩余库存，用来对账
+ * 秒杀中的商品id保存在flash_sale:products中，由定时任务遍历，同时在本地保留一份，redis不可用时用来拒绝秒杀商品的订单
+ */
+@Component
+@Slf4j
+public class FlashSaleStock {
+
+    private static final String PRODUCT_SET_KEY = "flash_sale:products";
+    private static final String STOCK = "stock";
+    private static final String PENDING = "pending";
+    private static final String CLOSED = "closed";
+
+    //结束之后保留剩余库存的时间，单位是秒
+    private static final int CLOSED_EXPIRE = Integer.parseInt(PropertiesUtil.getProperty("flash.sale.closed.expire", "604800"));
+
+    //上一次秒杀的pending没有同步完时不能开始，否则数据库的库存还没有扣减
+    private static final String START_SCRIPT =
+            "if redis.call('exists', KEYS[1]) == 1 then return 0 end " +
+            "if tonumber(redis.call('get', KEYS[2]) or '0') ~= 0 then return -1 end " +
+            "redis.call('set', KEYS[1], ARGV[1]) " +
+            "redis.call('del', KEYS[3]) " +
+            "return 1";
+
+    //-1不是秒杀商品，0库存不足，1预扣成功
+    private static final String RESERVE_SCRIPT =
+            "local stock = redis.call('get', KEYS[1]) " +
+            "if not stock then return -1 end " +
+            "if tonumber(stock) < tonumber(ARGV[1]) then return 0 end " +
+            "redis.call('decrby', KEYS[1], ARGV[1]) " +
+            "redis.call('incrby', KEYS[2], ARGV[1]) " +
+            "return 1";
+
+    //秒杀已经结束时加回到closed上，保证对账的结果不变
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('exists', KEYS[1]) == 1 then redis.call('incrby', KEYS[1], ARGV[1]) " +
+            "elseif redis.call('exists', KEYS[3]) == 1 then redis.call('incrby', KEYS[3], ARGV[1]) end " +
+            "return redis.call('decrby', KEYS[2], ARGV[1])";
+
+    //取出全部待同步的数量，已经同步过的预扣又被释放时为负数
+    private static final String TAKE_PENDING_SCRIPT =
+            "local pending = tonumber(redis.call('get', KEYS[1]) or '0') " +
+            "if pending ~= 0 then redis.call('decrby', KEYS[1], pending) end " +
+            "return pending";
+
+    private static final String INCR_SCRIPT = "return redis.call('incrby', KEYS[1], ARGV[1])";
+
+    private static final String END_SCRIPT =
+            "if redis.call('exists', KEYS[1]) == 0 then return 0 end " +
+            "redis.call('rename', KEYS[1], KEYS[2]) " +
+            "redis.call('expire', KEYS[2], ARGV[1]) " +
+            "return 1";
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    //定时任务每秒从flash_sale:products刷新，读取失败时保留上一次的结果，null表示启动之后还没有读取成功
+    private volatile Set<Integer> flashSaleProductIdSet;
+
+    public static class Reservation {
+        //预扣成功的商品和数量
+        private final Map<Integer, Integer> acceptedMap = Maps.newHashMap();
+        //库存不足的商品
+        private final Set<Integer> soldOutProductIdSet = Sets.newHashSet();
+
+        public Map<Integer, Integer> getAcceptedMap() {
+            return acceptedMap;
+        }
+
+        public Set<Integer> getSoldOutProductIdSet() {
+            return soldOutProductIdSet;
+        }
+    }
+
+    /**
+     * 开始秒杀，把数据库的库存复制到redis中，需要在开始售卖之前调用
+     * @param productId
+     * @return
+     */
+    public ServerResponse start(Integer productId) {
+        Product product = productMapper.selectByPrimaryKeyLazyDetail(productId);
+        if (product == null) {
+            return ServerResponse.createByErrorMessage("产品不存在或者已经删除");
+        }
+        Object result = RedisShardedPoolUtil.eval(START_SCRIPT, keys(productId, STOCK, PENDING, CLOSED),
+                Lists.newArrayList(String.valueOf(product.getStock())));
+        if (result == null) {
+            return ServerResponse.createByErrorMessage("redis不可用");
+        }
+        long code = (Long) result;
+        if (code == 0) {
+            return ServerResponse.createByErrorMessage("秒杀已经开始");
+        }
+        if (code < 0) {
+            return ServerResponse.createByErrorMessage("上一次秒杀还没有同步完成");
+        }
+        Set<Integer> productIdSet = flashSaleProductIdSet == null ? Sets.<Integer>newHashSet() : Sets.newHashSet(flashSaleProductIdSet);
+        productIdSet.add(productId);
+        flashSaleProductIdSet = productIdSet;
+        if (RedisShardedPoolUtil.sadd(PRODUCT_SET_KEY, String.valueOf(productId)) == null) {
+            //redis中已经开始预扣，只是不会定时同步，结束时仍然会同步
+            log.error("flash sale started but not registered productId:{}", productId);
+        }
+        log.info("flash sale start productId:{} stock:{}", productId, product.getStock());
+        return ServerResponse.createBySuccess();
+    }
+
+    /**
+     * 结束秒杀，之后的订单直接扣减数据库库存，同步剩余的pending之后对账
+     * @param productId
+     * @return 对账结果
+     */
+    public ServerResponse<Map<String, Object>> end(Integer productId) {
+        Object result = RedisShardedPoolUtil.eval(END_SCRIPT, keys(productId, STOCK, CLOSED),
+                Lists.newArrayList(String.valueOf(CLOSED_EXPIRE)));
+        if (result == null) {
+            return ServerResponse.createByErrorMessage("redis不可用");
+        }
+        if ((Long) result == 0) {
+            return ServerResponse.createByErrorMessage("秒杀没有开始");
+        }
+        flush(productId);
+        log.info("flash sale end productId:{}", productId);
+        return reconcile(productId);
+    }
+
+    /**
+     * 按商品在redis中预扣库存
+     * @param quantityMap 商品和购买数量
+     * @return 不是秒杀的商品既不在acceptedMap中也不在soldOutProductIdSet中
+     * redis不可用时不能确定商品是否在秒杀，本地记录的秒杀商品按库存不足处理，不能直接扣减数据库库存，
+     * 否则redis中仍然保留这部分库存，之后预扣成功的订单会超过数据库的库存；启动之后还没有读取到秒杀商品时全部按库存不足处理
+     */
+    public Reservation reserve(Map<Integer, Integer> quantityMap) {
+        Reservation reservation = new Reservation();
+        for (Map.Entry<Integer, Integer> entry : quantityMap.entrySet()) {
+            Object result = RedisShardedPoolUtil.eval(RESERVE_SCRIPT, keys(entry.getKey(), STOCK, PENDING),
+                    Lists.newArrayList(String.valueOf(entry.getValue())));
+            if (result == null) {
+                Set<Integer> productIdSet = flashSaleProductIdSet;
+                if (productIdSet == null || productIdSet.contains(entry.getKey())) {
+                    log.warn("flash sale stock unavailable, reject productId:{}", entry.getKey());
+                    reservation.soldOutProductIdSet.add(entry.getKey());
+                }
+                continue;
+            }
+            long code = (Long) result;
+            if (code == 1) {
+                reservation.acceptedMap.put(entry.getKey(), entry.getValue());
+            } else if (code == 0) {
+                reservation.soldOutProductIdSet.add(entry.getKey());
+            }
+        }
+        return reservation;
+    }
+
+    /**
+     * 释放预扣的库存
+     * @param acceptedMap
+     */
+    public void release(Map<Integer, Integer> acceptedMap) {
+        for (Map.Entry<Integer, Integer> entry : acceptedMap.entrySet()) {
+            Object result = RedisShardedPoolUtil.eval(RELEASE_SCRIPT, keys(entry.getKey(), STOCK, PENDING, CLOSED),
+                    Lists.newArrayList(String.valueOf(entry.getValue())));
+            if (result == null) {
+                //redis中少了这部分库存，对账时可以看到
+                log.error("release flash sale stock error productId:{} quantity:{}", entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 当前事务回滚之后释放预扣的库存，只在事务中调用
+     * 提交结果未知(STATUS_UNKNOWN)时不释放，宁可少卖
+     * @param acceptedMap
+     */
+    public void releaseOnRollback(final Map<Integer, Integer> acceptedMap) {
+        if (acceptedMap.isEmpty()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    release(acceptedMap);
+                }
+            }
+        });
+    }
+
+    /**
+     * redis中的剩余库存加上还没有同步的数量应该和数据库的库存一致
+     * 秒杀期间还有没提交的订单，差异只作参考，结束之后的差异说明有不经过秒杀的库存修改(例如关闭订单)或者同步失败
+     * @param productId
+     * @return
+     */
+    public ServerResponse<Map<String, Object>> reconcile(Integer productId) {
+        String stock = RedisShardedPoolUtil.get(key(productId, STOCK));
+        boolean active = stock != null;
+        if (!active) {
+            stock = RedisShardedPoolUtil.get(key(productId, CLOSED));
+        }
+        if (stock == null) {
+            return ServerResponse.createByErrorMessage("没有秒杀记录");
+        }
+        Product product = productMapper.selectByPrimaryKeyLazyDetail(productId);
+        if (product == null) {
+            return ServerResponse.createByErrorMessage("产品不存在或者已经删除");
+        }
+        String pending = RedisShardedPoolUtil.get(key(productId, PENDING));
+        long redisStock = Long.parseLong(stock);
+        long pendingQuantity = pending == null ? 0 : Long.parseLong(pending);
+        long diff = product.getStock() - pendingQuantity - redisStock;
+
+        Map<String, Object> resultMap = Maps.newLinkedHashMap();
+        resultMap.put("productId", productId);
+        resultMap.put("active", active);
+        resultMap.put("redisStock", redisStock);
+        resultMap.put("pending", pendingQuantity);
+        resultMap.put("dbStock", product.getStock());
+        resultMap.put("diff", diff);
+        if (!active && diff != 0) {
+            log.warn("flash sale reconcile mismatch {}", resultMap);
+        }
+        return ServerResponse.createBySuccess(resultMap);
+    }
+
+    //取出pending是原子操作，多个tomcat节点同时执行也不会重复扣减
+    @Scheduled(cron = "*/1 * * * * ?")//每秒
+    public void flushAll() {
+        Set<String> productIdSet = RedisShardedPoolUtil.smembers(PRODUCT_SET_KEY);
+        if (productIdSet == null) {
+            return;
+        }
+        Set<Integer> localProductIdSet = Sets.newHashSet();
+        for (String productIdStr : productIdSet) {
+            localProductIdSet.add(Integer.valueOf(productIdStr));
+        }
+        flashSaleProductIdSet = localProductIdSet;
+        for (String productIdStr : productIdSet) {
+            Integer productId = Integer.valueOf(productIdStr);
+            flush(productId);
+            removeIfFinished(productId);
+        }
+    }
+
+    /**
+     * 把pending一次同步到数据库，失败时放回pending下次重试
+     * @param productId
+     */
+    private void flush(Integer productId) {
+        String pendingKey = key(productId, PENDING);
+        Object result = RedisShardedPoolUtil.eval(TAKE_PENDING_SCRIPT, Collections.singletonList(pendingKey), Collections.<String>emptyList());
+        if (result == null) {
+            return;
+        }
+        int quantity = ((Long) result).intValue();
+        if (quantity == 0) {
+            return;
+        }
+        boolean success = false;
+        try {
+            if (quantity > 0) {
+                //数据库的库存比redis中少时更新失败，说明秒杀期间有不经过redis的扣减
+                success = productMapper.decreaseStock(productId, quantity) > 0;
+            } else {
+                success = productMapper.increaseStock(productId, -quantity) > 0;
+            }
+        } catch (Exception e) {
+            log.error("flush flash sale stock error productId:{} quantity:{}", productId, quantity, e);
+        }
+        if (!success) {
+            log.error("flush flash sale stock failed productId:{} quantity:{}", productId, quantity);
+            RedisShardedPoolUtil.eval(INCR_SCRIPT, Collections.singletonList(pendingKey), Lists.newArrayList(String.valueOf(quantity)));
+        }
+    }
+
+    //已经结束并且全部同步完成时不再遍历，同时输出对账结果
+    private void removeIfFinished(Integer productId) {
+        if (RedisShardedPoolUtil.get(key(productId, STOCK)) != null) {
+            return;
+        }
+        String pending = RedisShardedPoolUtil.get(key(productId, PENDING));
+        if (pending != null && Long.parseLong(pending) != 0) {
+            return;
+        }
+        RedisShardedPoolUtil.srem(PRODUCT_SET_KEY, String.valueOf(productId));
+        //srem之前又开始了新的秒杀
+        if (RedisShardedPoolUtil.get(key(productId, STOCK)) != null) {
+            RedisShardedPoolUtil.sadd(PRODUCT_SET_KEY, String.valueOf(productId));
+            return;
+        }
+        log.info("flash sale finished {}", reconcile(productId).getData());
+    }
+
+    private static String key(Integer productId, String type) {
+        return "flash_sale:{" + productId + "}:" + type;
+    }
+
+    private static List<String> keys(Integer productId, String... types) {
+        List<String> keyList = Lists.newArrayListWithCapacity(types.length);
+        for (String type : types) {
+            keyList.add(key(productId, type));
+        }
+        return keyList;
+    }
+}
@@ -3,6 +3,7 @@ package com.mmall.controller.backend;
 import com.mmall.common.Const;
 import com.mmall.common.ResponseCode;
 import com.mmall.common.ServerResponse;
+import com.mmall.common.cache.CatalogVersion;
 import com.mmall.pojo.User;
 import com.mmall.service.ICategoryService;
 import com.mmall.service.IUserService;
@@ -53,7 +54,12 @@ public class CategoryManageController {
 //            return ServerResponse.createByErrorMessage("无权限操作,需要管理员权限");
 //        }
         //上面所有检测验证已经通过SpringMVC拦截器统一验证，这里直接调用方法即可
-        return iCategoryService.addCategory(categoryName,parentId);
+        ServerResponse response = iCategoryService.addCategory(categoryName,parentId);
+        if(response.isSuccess()){
+            //列表的响应缓存整体失效
+            CatalogVersion.bump();
+        }
+        return response;
     }
     @RequestMapping("set_category_name.do")
     @ResponseBody
@@ -75,7 +81,12 @@ public class CategoryManageController {
 //            return ServerResponse.createByErrorMessage("无权限操作，需要管理员权限");
 //        }
         //上面所有检测验证已经通过SpringMVC拦截器统一验证，这里直接调用方法即可
-        return iCategoryService.updateCategoryName(categoryId,categoryName);
+        ServerResponse response = iCategoryService.updateCategoryName(categoryId,categoryName);
+        if(response.isSuccess()){
+            //列表的响应缓存整体失效
+            CatalogVersion.bump();
+        }
+        return response;
     }
 
     @RequestMapping("get_category.do")
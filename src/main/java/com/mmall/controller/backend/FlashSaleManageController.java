@@ -0,0 +1,51 @@
+package com.mmall.controller.backend;
+
+import com.mmall.common.ServerResponse;
+import com.mmall.common.stock.FlashSaleStock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * Created by Allen
+ * 秒杀商品的开始、结束和对账，权限由AuthorityInterceptor统一校验
+ */
+@Controller
+@RequestMapping("/manage/flash_sale/")
+public class FlashSaleManageController {
+
+    @Autowired
+    private FlashSaleStock flashSaleStock;
+
+    //把数据库的库存复制到redis，之后这个商品的下单先在redis中预扣库存
+    @RequestMapping("start.do")
+    @ResponseBody
+    public ServerResponse start(Integer productId) {
+        if (productId == null) {
+            return ServerResponse.createByErrorMessage("参数错误");
+        }
+        return flashSaleStock.start(productId);
+    }
+
+    //结束之后同步剩余的预扣库存并返回对账结果
+    @RequestMapping("end.do")
+    @ResponseBody
+    public ServerResponse<Map<String, Object>> end(Integer productId) {
+        if (productId == null) {
+            return ServerResponse.createByErrorMessage("参数错误");
+        }
+        return flashSaleStock.end(productId);
+    }
+
+    @RequestMapping("reconcile.do")
+    @ResponseBody
+    public ServerResponse<Map<String, Object>> reconcile(Integer productId) {
+        if (productId == null) {
+            return ServerResponse.createByErrorMessage("参数错误");
+        }
+        return flashSaleStock.reconcile(productId);
+    }
+}
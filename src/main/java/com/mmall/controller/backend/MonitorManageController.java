@@ -0,0 +1,76 @@
+package com.mmall.controller.backend;
+
+import com.google.common.collect.Maps;
+import com.mmall.common.ResponseCode;
+import com.mmall.common.ServerResponse;
+import com.mmall.common.ShardCircuitBreaker;
+import com.mmall.common.cache.ResponseCache;
+import com.mmall.common.cache.TwoLevelCache;
+import com.mmall.common.monitor.PoolMetrics;
+import com.mmall.util.RedisShardedPoolUtil;
+import com.mmall.util.UserSessionUtil;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Allen
+ * 运行状态监控，权限由AuthorityInterceptor统一校验
+ */
+@Controller
+@RequestMapping("/manage/monitor/")
+public class MonitorManageController {
+
+    //session续期的统计，issued是实际发送expire的次数，skipped是剩余时间充足跳过续期的次数，degraded是redis分片熔断时使用本地缓存的次数
+    @RequestMapping("session.do")
+    @ResponseBody
+    public ServerResponse<Map<String, Object>> session() {
+        Map<String, Object> resultMap = Maps.newHashMap();
+        resultMap.put("refreshIssued", UserSessionUtil.getRefreshIssuedCount());
+        resultMap.put("refreshSkipped", UserSessionUtil.getRefreshSkippedCount());
+        resultMap.put("degraded", UserSessionUtil.getDegradedCount());
+        return ServerResponse.createBySuccess(resultMap);
+    }
+
+    //redis和数据库连接池的监控数据，用来调整连接池的大小
+    @RequestMapping("pool.do")
+    @ResponseBody
+    public ServerResponse<Map<String, Map<String, Object>>> pool() {
+        return ServerResponse.createBySuccess(PoolMetrics.snapshotAll());
+    }
+
+    //redis分片熔断器的状态
+    @RequestMapping("redis_shard.do")
+    @ResponseBody
+    public ServerResponse<List<Map<String, Object>>> redisShard() {
+        return ServerResponse.createBySuccess(ShardCircuitBreaker.snapshotAll());
+    }
+
+    //redis分片的热点key和访问倾斜，current是当前窗口，previous是上一个完整的窗口
+    @RequestMapping("hot_key.do")
+    @ResponseBody
+    public ServerResponse<Map<String, Object>> hotKey(@RequestParam(value = "top", defaultValue = "20") int top) {
+        if (top < 0) {
+            return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
+        }
+        return ServerResponse.createBySuccess(RedisShardedPoolUtil.hotKeySnapshot(top));
+    }
+
+    //@CacheAside的命中率和回源统计
+    @RequestMapping("cache.do")
+    @ResponseBody
+    public ServerResponse<Map<String, Map<String, Object>>> cache() {
+        return ServerResponse.createBySuccess(TwoLevelCache.snapshotAll());
+    }
+
+    //匿名商品列表响应缓存的命中率和当前的目录版本号
+    @RequestMapping("response_cache.do")
+    @ResponseBody
+    public ServerResponse<Map<String, Object>> responseCache() {
+        return ServerResponse.createBySuccess(ResponseCache.snapshot());
+    }
+}
@@ -36,8 +36,9 @@ public class OrderManageController {
 
     @RequestMapping("list.do")
     @ResponseBody
-    public ServerResponse<PageInfo> orderList(HttpServletRequest httpServletRequest, @RequestParam(value = "pageNum",defaultValue = "1") int pageNum,
-                                              @RequestParam(value = "pageSize",defaultValue = "10")int pageSize){
+    public ServerResponse orderList(HttpServletRequest httpServletRequest, @RequestParam(value = "pageNum",defaultValue = "1") int pageNum,
+                                    @RequestParam(value = "pageSize",defaultValue = "10")int pageSize,
+                                    @RequestParam(value = "cursor",required = false)String cursor){
 
 //        String loginToken = CookieUtil.readLoginToken(httpServletRequest);
 //        if (StringUtils.isEmpty(loginToken)){
@@ -56,6 +57,10 @@ public class OrderManageController {
 //            return ServerResponse.createByErrorMessage("无权限操作");
 //        }
         //上面所有检测验证已经通过SpringMVC拦截器统一验证，这里直接调用方法即可
+        //传了cursor参数(第一页传空字符串)时使用keyset分页，忽略pageNum
+        if (cursor != null) {
+            return iOrderService.manageListByCursor(cursor, pageSize);
+        }
         return iOrderService.manageList(pageNum,pageSize);
     }
 
@@ -4,6 +4,7 @@ import com.google.common.collect.Maps;
 import com.mmall.common.Const;
 import com.mmall.common.ResponseCode;
 import com.mmall.common.ServerResponse;
+import com.mmall.common.cache.CatalogVersion;
 import com.mmall.pojo.Product;
 import com.mmall.pojo.User;
 import com.mmall.service.IFileService;
@@ -55,7 +56,12 @@ public class ProductManageController {
 //        } else {
 //            return ServerResponse.createByErrorMessage("无权限操作");
 //        }
-        return iProductService.saveOrUpdateProduct(product);
+        ServerResponse response = iProductService.saveOrUpdateProduct(product);
+        if(response.isSuccess()){
+            //列表的响应缓存整体失效
+            CatalogVersion.bump();
+        }
+        return response;
     }
 
     @RequestMapping("set_sale_status.do")
@@ -75,7 +81,12 @@ public class ProductManageController {
 //        } else {
 //            return ServerResponse.createByErrorMessage("无权限操作");
 //        }
-        return iProductService.setSaleStatus(productId, status);
+        ServerResponse response = iProductService.setSaleStatus(productId, status);
+        if(response.isSuccess()){
+            //列表的响应缓存整体失效
+            CatalogVersion.bump();
+        }
+        return response;
     }
 
     @RequestMapping("detail.do")
@@ -101,7 +112,8 @@ public class ProductManageController {
 
     @RequestMapping("list.do")
     @ResponseBody
-    public ServerResponse getList(HttpServletRequest httpServletRequest, @RequestParam(value = "pageNum", defaultValue = "1") int pageNum, @RequestParam(value = "pageSize", defaultValue = "10") int pageSize) {
+    public ServerResponse getList(HttpServletRequest httpServletRequest, @RequestParam(value = "pageNum", defaultValue = "1") int pageNum, @RequestParam(value = "pageSize", defaultValue = "10") int pageSize,
+                                  @RequestParam(value = "cursor", required = false) String cursor) {
 //        String loginToken = CookieUtil.readLoginToken(httpServletRequest);
 //        if (StringUtils.isEmpty(loginToken)){
 //            return ServerResponse.createByErrorMessage("用户未登录，无法获取当前用户的信息");
@@ -117,6 +129,10 @@ public class ProductManageController {
 //        } else {
 //            return ServerResponse.createByErrorMessage("无权限操作");
 //        }
+        //传了cursor参数(第一页传空字符串)时使用keyset分页，忽略pageNum
+        if (cursor != null) {
+            return iProductService.getProductListByCursor(cursor, pageSize);
+        }
         return iProductService.getProductList(pageNum, pageSize);
     }
 
@@ -5,8 +5,7 @@ import com.mmall.common.ServerResponse;
 import com.mmall.pojo.User;
 import com.mmall.service.IUserService;
 import com.mmall.util.CookieUtil;
-import com.mmall.util.JsonUtil;
-import com.mmall.util.RedisShardedPoolUtil;
+import com.mmall.util.UserSessionUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -36,8 +35,8 @@ public class UserManageController {
 //                session.setAttribute(Const.CURRENT_USER,user);
 
                 //新增redis共享cookie，session的方式
-                CookieUtil.writeLoginToken(httpServletResponse,session.getId());
-                RedisShardedPoolUtil.setEx(session.getId(), JsonUtil.obj2String(response.getData()), Const.RedisCacheExtime.REDIS_SESSION_EXTIME);
+                CookieUtil.writeLoginToken(httpServletResponse,session.getId(),response.getData());
+                UserSessionUtil.setUser(session.getId(), response.getData());
 
                 return response;
             }else{
@@ -1,14 +1,13 @@
 package com.mmall.controller.common;
 
-import com.mmall.common.Const;
 import com.mmall.pojo.User;
 import com.mmall.util.CookieUtil;
-import com.mmall.util.JsonUtil;
-import com.mmall.util.RedisShardedPoolUtil;
-import org.apache.commons.lang3.StringUtils;
+import com.mmall.util.LoginClaimUtil;
+import com.mmall.util.UserSessionUtil;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
 /**
@@ -24,17 +23,21 @@ public class SessionExpireFilter implements Filter {
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
         HttpServletRequest httpServletRequest = (HttpServletRequest) servletRequest;
-        String loginToken = CookieUtil.readLoginToken(httpServletRequest);
-        if (StringUtils.isNotEmpty(loginToken)) {
-            //判断logintoken是否为空或者“”；
-            //如果不为空的话，符合条件，继续拿user信息
-            String userJsonStr = RedisShardedPoolUtil.get(loginToken);
-            User user = JsonUtil.string2Obj(userJsonStr, User.class);
-            if (user != null) {
-                //如果user不为空，则重置session的时间，即调用expire命令
-                RedisShardedPoolUtil.expire(loginToken, Const.RedisCacheExtime.REDIS_SESSION_EXTIME);
+        if (LoginClaimUtil.isEnabled()) {
+            LoginClaimUtil.LoginClaim loginClaim = UserSessionUtil.getLoginClaim(httpServletRequest);
+            if (loginClaim != null && !LoginClaimUtil.needReissue(loginClaim)) {
+                //凭证有效时不提前查询redis，只有真正需要session的接口才会去查询
+                filterChain.doFilter(servletRequest, servletResponse);
+                return;
             }
         }
+        //解析当前登录用户并缓存到request中，后面的拦截器和controller直接复用，不再重复查询redis
+        //session剩余时间低于阈值时在读取的同时续期，不再每次请求都调用expire命令
+        User user = UserSessionUtil.getCurrentUser(httpServletRequest);
+        if (user != null && LoginClaimUtil.isEnabled()) {
+            //凭证不存在或者快过期了，session有效时重新签发
+            CookieUtil.writeLoginClaim((HttpServletResponse) servletResponse, LoginClaimUtil.sign(user, UserSessionUtil.getLoginToken(httpServletRequest)));
+        }
         filterChain.doFilter(servletRequest, servletResponse);
     }
 
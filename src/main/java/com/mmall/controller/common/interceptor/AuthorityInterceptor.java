@@ -4,9 +4,8 @@ import com.google.common.collect.Maps;
 import com.mmall.common.Const;
 import com.mmall.common.ServerResponse;
 import com.mmall.pojo.User;
-import com.mmall.util.CookieUtil;
 import com.mmall.util.JsonUtil;
-import com.mmall.util.RedisShardedPoolUtil;
+import com.mmall.util.UserSessionUtil;
 import com.sun.corba.se.spi.activation.Server;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -65,12 +64,9 @@ public class AuthorityInterceptor implements HandlerInterceptor {
         log.info("权限拦截器拦截到请求，className:{},methodName:{},param{}",className,methodName,requestParamBuffer.toString());
 
 
-        User user = null;
-        String loginToken = CookieUtil.readLoginToken(httpServletRequest);
-        if (StringUtils.isNotEmpty(loginToken)) {
-            String userJsonStr = RedisShardedPoolUtil.get(loginToken);
-            user = JsonUtil.string2Obj(userJsonStr, User.class);
-        }
+        //SessionExpireFilter已经解析过当前用户，这里直接从request中取
+        //后台接口不接受登录凭证，role以redis中的session为准，角色修改之后立即生效
+        User user = UserSessionUtil.getCurrentUser(httpServletRequest);
         if (user == null || (user.getRole().intValue() != Const.Role.ROLE_ADMIN)) {
             //返回false，即不会调用controller里的方法
 
@@ -0,0 +1,15 @@
+package com.mmall.controller.common.resolver;
+
+import java.lang.annotation.*;
+
+/**
+ * Created by Allen
+ * 标注在只读的controller方法上，允许使用cookie中签名的登录凭证代替redis中的session
+ * 此时@CurrentUser注入的user只有id和role，写操作的接口不要使用
+ * 只用于前台接口，后台(/manage/**)的权限以redis中的session为准，不使用
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface AllowClaim {
+}
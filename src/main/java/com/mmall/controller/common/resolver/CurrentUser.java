@@ -0,0 +1,14 @@
+package com.mmall.controller.common.resolver;
+
+import java.lang.annotation.*;
+
+/**
+ * Created by Allen
+ * 标注在controller方法的User参数上，由CurrentUserArgumentResolver注入当前登录用户
+ * 未登录时注入null
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CurrentUser {
+}
@@ -0,0 +1,35 @@
+package com.mmall.controller.common.resolver;
+
+import com.mmall.pojo.User;
+import com.mmall.util.UserSessionUtil;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Created by Allen
+ * 把SessionExpireFilter已经解析好的登录用户注入到controller，避免每个controller再查一次redis
+ * 方法上标注了@AllowClaim时优先使用登录凭证
+ */
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentUser.class)
+                && User.class.isAssignableFrom(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws Exception {
+        HttpServletRequest request = webRequest.getNativeRequest(HttpServletRequest.class);
+        if (parameter.getMethodAnnotation(AllowClaim.class) != null) {
+            return UserSessionUtil.getClaimOrCurrentUser(request);
+        }
+        return UserSessionUtil.getCurrentUser(request);
+    }
+}
@@ -1,11 +1,15 @@
 package com.mmall.controller.portal;
 
 import com.github.pagehelper.PageInfo;
+import com.google.common.base.Joiner;
+import com.mmall.common.Const;
 import com.mmall.common.ServerResponse;
+import com.mmall.common.cache.ResponseCache;
 import com.mmall.service.IProductService;
 import com.mmall.vo.ProductDetailVo;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -42,21 +46,25 @@ public class ProductController {
     }
 
 
+    //匿名访问的列表对所有用户都一样，响应放在ResponseCache中，命中时直接返回序列化好的JSON
     @RequestMapping("list.do")
-    @ResponseBody
-    public ServerResponse<PageInfo> list(@RequestParam(value = "keyword",required = false)String keyword,
-                                         @RequestParam(value = "categoryId",required = false)Integer categoryId,
-                                         @RequestParam(value = "pageNum",defaultValue = "1") int pageNum,
-                                         @RequestParam(value = "pageSize",defaultValue = "10") int pageSize,
-                                         @RequestParam(value = "orderBy",defaultValue = "") String orderBy){
-        return iProductService.getProductByKeywordCategory(keyword,categoryId,pageNum,pageSize,orderBy);
+    public ResponseEntity<byte[]> list(@RequestParam(value = "keyword",required = false)String keyword,
+                               @RequestParam(value = "categoryId",required = false)Integer categoryId,
+                               @RequestParam(value = "pageNum",defaultValue = "1") int pageNum,
+                               @RequestParam(value = "pageSize",defaultValue = "10") int pageSize,
+                               @RequestParam(value = "orderBy",defaultValue = "") String orderBy,
+                               @RequestParam(value = "cursor",required = false)String cursor){
+        //传了cursor参数(第一页传空字符串)时使用keyset分页，忽略pageNum，返回的nextCursor作为下一页的cursor
+        if(cursor != null){
+            return ResponseCache.write(iProductService.getProductByKeywordCategoryByCursor(keyword,categoryId,cursor,pageSize,orderBy));
+        }
+        return cachedList(keyword,categoryId,pageNum,pageSize,orderBy);
     }
 
 
     //http://localhost:8080/product/手机/100012/1/10/price_asc/
     @RequestMapping(value = "/{keyword}/{categoryId}/{pageNum}/{pageSize}/{orderBy}",method = RequestMethod.GET)
-    @ResponseBody
-    public ServerResponse<PageInfo> listRESTful(@PathVariable(value = "keyword")String keyword,
+    public ResponseEntity<byte[]> listRESTful(@PathVariable(value = "keyword")String keyword,
                                                 @PathVariable(value = "categoryId")Integer categoryId,
                                                 @PathVariable(value = "pageNum") Integer pageNum,
                                                 @PathVariable(value = "pageSize") Integer pageSize,
@@ -71,7 +79,7 @@ public class ProductController {
             orderBy = "price_asc";
         }
 
-        return iProductService.getProductByKeywordCategory(keyword,categoryId,pageNum,pageSize,orderBy);
+        return cachedList(keyword,categoryId,pageNum,pageSize,orderBy);
     }
 
 
@@ -132,8 +140,7 @@ public class ProductController {
 
     //http://localhost:8080/product/keyword/手机/1/10/price_asc/
     @RequestMapping(value = "/keyword/{keyword}/{pageNum}/{pageSize}/{orderBy}",method = RequestMethod.GET)
-    @ResponseBody
-    public ServerResponse<PageInfo> listRESTful(@PathVariable(value = "keyword")String keyword,
+    public ResponseEntity<byte[]> listRESTful(@PathVariable(value = "keyword")String keyword,
                                                 @PathVariable(value = "pageNum") Integer pageNum,
                                                 @PathVariable(value = "pageSize") Integer pageSize,
                                                 @PathVariable(value = "orderBy") String orderBy){
@@ -147,13 +154,12 @@ public class ProductController {
             orderBy = "price_asc";
         }
 
-        return iProductService.getProductByKeywordCategory(keyword,null,pageNum,pageSize,orderBy);
+        return cachedList(keyword,null,pageNum,pageSize,orderBy);
     }
 
     //http://localhost:8080/product/category/100012/1/10/price_asc/
     @RequestMapping(value = "/category/{categoryId}/{pageNum}/{pageSize}/{orderBy}",method = RequestMethod.GET)
-    @ResponseBody
-    public ServerResponse<PageInfo> listRESTful(@PathVariable(value = "categoryId")Integer categoryId,
+    public ResponseEntity<byte[]> listRESTful(@PathVariable(value = "categoryId")Integer categoryId,
                                                 @PathVariable(value = "pageNum") Integer pageNum,
                                                 @PathVariable(value = "pageSize") Integer pageSize,
                                                 @PathVariable(value = "orderBy") String orderBy){
@@ -167,6 +173,19 @@ public class ProductController {
             orderBy = "price_asc";
         }
 
-        return iProductService.getProductByKeywordCategory("",categoryId,pageNum,pageSize,orderBy);
+        return cachedList("",categoryId,pageNum,pageSize,orderBy);
+    }
+
+    private ResponseEntity<byte[]> cachedList(final String keyword, final Integer categoryId, final int pageNum, final int pageSize, final String orderBy){
+        //不支持的排序方式和不排序的结果一样，keyword放在最后，其中出现分隔符也不会和其他参数混淆
+        String key = Joiner.on("|").join(categoryId == null ? "" : categoryId, pageNum, pageSize,
+                Const.ProductListOrderBy.PRICE_ASC_DESC.contains(orderBy) ? orderBy : "",
+                StringUtils.isBlank(keyword) ? "" : keyword);
+        return ResponseCache.get(key, new ResponseCache.Loader() {
+            @Override
+            public ServerResponse load() {
+                return iProductService.getProductByKeywordCategory(keyword,categoryId,pageNum,pageSize,orderBy);
+            }
+        });
     }
 }
@@ -3,12 +3,12 @@ package com.mmall.controller.portal;
 import com.mmall.common.Const;
 import com.mmall.common.ResponseCode;
 import com.mmall.common.ServerResponse;
+import com.mmall.controller.common.resolver.CurrentUser;
 import com.mmall.pojo.User;
 import com.mmall.service.IUserService;
 import com.mmall.util.CookieUtil;
-import com.mmall.util.JsonUtil;
-import com.mmall.util.RedisShardedPoolUtil;
-import org.apache.commons.lang3.StringUtils;
+import com.mmall.util.LoginClaimUtil;
+import com.mmall.util.UserSessionUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -51,8 +51,8 @@ public class UserController {
         if (response.isSuccess()) {
             //session.setAttribute(Const.CURRENT_USER, response.getData());
             //session.getId() 取的就是session的id作为token 也可以使用UUID
-            CookieUtil.writeLoginToken(httpServletResponse,session.getId());
-            RedisShardedPoolUtil.setEx(session.getId(), JsonUtil.obj2String(response.getData()), Const.RedisCacheExtime.REDIS_SESSION_EXTIME);
+            CookieUtil.writeLoginToken(httpServletResponse,session.getId(),response.getData());
+            UserSessionUtil.setUser(session.getId(), response.getData());
         }
         return response;
     }
@@ -67,9 +67,9 @@ public class UserController {
     @ResponseBody
     public ServerResponse<String> logout(HttpServletRequest httpServletRequest,HttpServletResponse httpServletResponse) {
         //session.removeAttribute(Const.CURRENT_USER);
-        String loginToken=CookieUtil.readLoginToken(httpServletRequest);
+        String loginToken=UserSessionUtil.getLoginToken(httpServletRequest);
         CookieUtil.delLoginToken(httpServletRequest,httpServletResponse);
-        RedisShardedPoolUtil.del(loginToken);
+        UserSessionUtil.delUser(loginToken);
         return ServerResponse.createBySuccess("退出成功");
     }
 
@@ -102,20 +102,13 @@ public class UserController {
 
     /**
      *
-     * @param httpServletRequest
+     * @param user
      * @return
      */
     @RequestMapping(value = "get_user_info.do", method = RequestMethod.POST)
     @ResponseBody
-    public ServerResponse<User> getUserInfo(HttpServletRequest httpServletRequest) {
+    public ServerResponse<User> getUserInfo(@CurrentUser User user) {
         //User user = (User) session.getAttribute(Const.CURRENT_USER)
-        String loginToken = CookieUtil.readLoginToken(httpServletRequest);
-        if (StringUtils.isEmpty(loginToken)){
-            return ServerResponse.createByErrorMessage("用户未登录，无法获取当前用户的信息");
-        }
-
-        String userJsonStr = RedisShardedPoolUtil.get(loginToken);
-        User user=JsonUtil.string2Obj(userJsonStr,User.class);
         if (user != null) {
             return ServerResponse.createBySuccess(user);
         }
@@ -173,17 +166,20 @@ public class UserController {
      */
     @RequestMapping(value = "reset_password.do", method = RequestMethod.POST)
     @ResponseBody
-    public ServerResponse<String> resetPassword(HttpServletRequest httpServletRequest, String passwordOld, String passwordNew) {
-        String loginToken = CookieUtil.readLoginToken(httpServletRequest);
-        if (StringUtils.isEmpty(loginToken)){   //cs == null || cs.length() == 0
-            return ServerResponse.createByErrorMessage("用户未登录，无法获取当前用户的信息");
-        }
-        String userJsonStr = RedisShardedPoolUtil.get(loginToken);
-        User user=JsonUtil.string2Obj(userJsonStr,User.class);
+    public ServerResponse<String> resetPassword(HttpServletRequest httpServletRequest, @CurrentUser User user, String passwordOld, String passwordNew) {
         if (user == null) {
             return ServerResponse.createByErrorMessage("用户未登录");
         }
-        return iUserService.resetPassword(passwordOld, passwordNew, user);
+        //session中的user是各个请求共享的本地缓存对象，这里只传id，避免service修改它
+        User passwordUser = new User();
+        passwordUser.setId(user.getId());
+        ServerResponse<String> response = iUserService.resetPassword(passwordOld, passwordNew, passwordUser);
+        if (response.isSuccess()) {
+            String loginToken = UserSessionUtil.getLoginToken(httpServletRequest);
+            UserSessionUtil.invalidate(loginToken);
+            LoginClaimUtil.revoke(loginToken);
+        }
+        return response;
     }
 
     /**
@@ -195,13 +191,7 @@ public class UserController {
      */
     @RequestMapping(value = "update_information.do", method = RequestMethod.POST)
     @ResponseBody
-    public ServerResponse<User> update_information(HttpServletRequest httpServletRequest, User user) {
-        String loginToken = CookieUtil.readLoginToken(httpServletRequest);
-        if (StringUtils.isEmpty(loginToken)){
-            return ServerResponse.createByErrorMessage("用户未登录，无法获取当前用户的信息");
-        }
-        String userJsonStr = RedisShardedPoolUtil.get(loginToken);
-        User currentUser=JsonUtil.string2Obj(userJsonStr,User.class);
+    public ServerResponse<User> update_information(HttpServletRequest httpServletRequest, @CurrentUser User currentUser, User user) {
         if (currentUser == null) {
             return ServerResponse.createByErrorMessage("用户未登录");
         }
@@ -210,7 +200,7 @@ public class UserController {
         user.setUsername(currentUser.getUsername());
         ServerResponse<User> response = iUserService.updateInformation(user);
         if (response.isSuccess()) {
-            RedisShardedPoolUtil.setEx(loginToken, JsonUtil.obj2String(response.getData()), Const.RedisCacheExtime.REDIS_SESSION_EXTIME);
+            UserSessionUtil.setUser(UserSessionUtil.getLoginToken(httpServletRequest), response.getData());
         }
         return response;
     }
@@ -223,14 +213,8 @@ public class UserController {
      */
     @RequestMapping(value = "get_information.do", method = RequestMethod.POST)
     @ResponseBody
-    public ServerResponse<User> get_information(HttpServletRequest httpServletRequest) {
+    public ServerResponse<User> get_information(@CurrentUser User user) {
         //如果此时没有登陆要进行强制登陆
-        String loginToken = CookieUtil.readLoginToken(httpServletRequest);
-        if (StringUtils.isEmpty(loginToken)){
-            return ServerResponse.createByErrorMessage("用户未登录，无法获取当前用户的信息");
-        }
-        String userJsonStr = RedisShardedPoolUtil.get(loginToken);
-        User user=JsonUtil.string2Obj(userJsonStr,User.class);
         if (user == null) {
             return ServerResponse.createByErrorCodeMessage(ResponseCode.NEED_LOGIN.getCode(), "未登录，需要强制登陆，status=10");
         }
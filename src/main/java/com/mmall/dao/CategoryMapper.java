@@ -18,4 +18,7 @@ public interface CategoryMapper {
     int updateByPrimaryKey(Category record);
 
     List<Category> selectCategoryChildByParentId(Integer parentId);
+
+    //构建品类树快照
+    List<Category> selectAll();
 }
\ No newline at end of file
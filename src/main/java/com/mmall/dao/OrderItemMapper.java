@@ -3,6 +3,7 @@ package com.mmall.dao;
 import com.mmall.pojo.OrderItem;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface OrderItemMapper {
@@ -21,5 +22,8 @@ public interface OrderItemMapper {
     List<OrderItem> getByOrderNoUserId(@Param("orderNo")Long orderNo,@Param("userId")Integer userId);
     List<OrderItem> getByOrderNo(@Param("orderNo")Long orderNo);
 
+    //userId为null时是管理员查询，不限制用户
+    List<OrderItem> getByOrderNos(@Param("orderNoList") Collection<Long> orderNoList, @Param("userId") Integer userId);
+
     void batchInsert(@Param("orderItemList") List<OrderItem>orderItemList);
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.mmall.dao;
 import com.mmall.pojo.Order;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Date;
 import java.util.List;
 
 public interface OrderMapper {
@@ -27,6 +28,9 @@ public interface OrderMapper {
 
     List<Order> selectAllOrder();
 
+    //keyset分页，lastId为null时查询第一页
+    List<Order> selectAllOrderAfter(@Param("lastCreateTime") Date lastCreateTime, @Param("lastId") Integer lastId, @Param("limit") int limit);
+
     //二期新增的定时关单
     List<Order> selectOrderStatusByCreateTime(@Param("status") Integer status,@Param("Date") String date);
 
@@ -1,9 +1,13 @@
 package com.mmall.dao;
 
 import com.mmall.pojo.Product;
+import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.annotations.Param;
 
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface ProductMapper {
     int deleteByPrimaryKey(Integer id);
@@ -14,6 +18,15 @@ public interface ProductMapper {
 
     Product selectByPrimaryKey(Integer id);
 
+    //不查询detail，第一次调用getDetail时再通过selectDetailByPrimaryKey加载
+    Product selectByPrimaryKeyLazyDetail(Integer id);
+
+    String selectDetailByPrimaryKey(Integer id);
+
+    //批量查询，不包含detail和sub_images，productIdList不能为空，不存在的id在map中没有对应的key
+    @MapKey("id")
+    Map<Integer, Product> selectByPrimaryKeys(@Param("productIdList") Collection<Integer> productIdList);
+
     int updateByPrimaryKeySelective(Product record);
 
     int updateByPrimaryKey(Product record);
@@ -22,6 +35,17 @@ public interface ProductMapper {
     List<Product> selectByNameAndProductId(@Param("productName") String productName,@Param("productId") Integer productId);
     List<Product> selectByNameAndCategoryIds(@Param("productName") String productName,@Param("categoryIdList") List<Integer> categoryIdList);
 
+    //keyset分页，lastId为null时查询第一页，limit比pageSize多一条用来判断是否还有下一页
+    List<Product> selectListAfter(@Param("lastId") Integer lastId, @Param("limit") int limit);
+    List<Product> selectByNameAndCategoryIdsAfter(@Param("productName") String productName, @Param("categoryIdList") List<Integer> categoryIdList,
+                                                  @Param("orderBy") String orderBy, @Param("lastPrice") BigDecimal lastPrice,
+                                                  @Param("lastId") Integer lastId, @Param("limit") int limit);
+
+    //库存不足时不更新，返回0
+    int decreaseStock(@Param("productId") Integer productId, @Param("quantity") int quantity);
+
+    int increaseStock(@Param("productId") Integer productId, @Param("quantity") int quantity);
+
     //定时关单
     //一定要用Integer，因为int无法为null，考虑到很多商品可能已经删除的情况
     Integer selectStockByProductId(Integer id);
@@ -1,9 +1,12 @@
 package com.mmall.dao;
 
 import com.mmall.pojo.Shipping;
+import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface ShippingMapper {
     int deleteByPrimaryKey(Integer id);
@@ -14,6 +17,9 @@ public interface ShippingMapper {
 
     Shipping selectByPrimaryKey(Integer id);
 
+    @MapKey("id")
+    Map<Integer, Shipping> selectByPrimaryKeys(@Param("shippingIdList") Collection<Integer> shippingIdList);
+
     int updateByPrimaryKeySelective(Shipping record);
 
     int updateByPrimaryKey(Shipping record);
@@ -2,6 +2,8 @@ package com.mmall.service;
 
 import com.github.pagehelper.PageInfo;
 import com.mmall.common.ServerResponse;
+import com.mmall.common.queue.OrderIntent;
+import com.mmall.vo.CursorPage;
 import com.mmall.vo.OrderVo;
 
 import java.util.Map;
@@ -15,6 +17,12 @@ public interface IOrderService {
     ServerResponse queryOrderPayStatus(Integer userId,Long orderNo);
     //创建订单
     ServerResponse createOrder(Integer userId,Integer shippingId);
+
+    ServerResponse acceptOrder(Integer userId,Integer shippingId);
+
+    ServerResponse processOrderIntent(OrderIntent intent);
+
+    void releaseOrderIntent(OrderIntent intent);
     //取消订单
     ServerResponse<String> cancel(Integer userId,Long orderNo);
     //获取订单的商品信息
@@ -25,6 +33,7 @@ public interface IOrderService {
 
     //backend部分
     ServerResponse<PageInfo> manageList(int pageNum,int pageSize);
+    ServerResponse<CursorPage<OrderVo>> manageListByCursor(String cursor, int pageSize);
     ServerResponse<OrderVo> manageDetail(Long orderNo);
     ServerResponse<PageInfo> manageSearch(Long orderNo,int pageNum,int pageSize);
     ServerResponse<String> manageSendGoods(Long orderNo);
@@ -3,7 +3,9 @@ package com.mmall.service;
 import com.github.pagehelper.PageInfo;
 import com.mmall.common.ServerResponse;
 import com.mmall.pojo.Product;
+import com.mmall.vo.CursorPage;
 import com.mmall.vo.ProductDetailVo;
+import com.mmall.vo.ProductListVo;
 
 /**
  * Created by Allen
@@ -16,4 +18,7 @@ public interface IProductService {
     ServerResponse<PageInfo> searchProduct(String productName, Integer productId, int pageNum, int pageSize);
     ServerResponse<ProductDetailVo> getProductDetail(Integer productId);
     ServerResponse<PageInfo> getProductByKeywordCategory(String keyword, Integer categoryId, int pageNum, int pageSize,String orderBy);
+    //keyset分页，cursor为空字符串时查询第一页
+    ServerResponse<CursorPage<ProductListVo>> getProductListByCursor(String cursor, int pageSize);
+    ServerResponse<CursorPage<ProductListVo>> getProductByKeywordCategoryByCursor(String keyword, Integer categoryId, String cursor, int pageSize, String orderBy);
 }
@@ -2,6 +2,7 @@ package com.mmall.service.impl;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.mmall.common.Const;
 import com.mmall.common.ResponseCode;
 import com.mmall.common.ServerResponse;
@@ -20,6 +21,8 @@ import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Allen
@@ -105,13 +108,15 @@ public class CartServiceImpl implements ICartService {
         BigDecimal cartTotalPrice = new BigDecimal("0");
 
         if(CollectionUtils.isNotEmpty(cartList)){
+            //购物车中所有商品一次查询
+            Map<Integer,Product> productMap = selectProductMap(cartList);
             for(Cart cartItem : cartList){
                 CartProductVo cartProductVo = new CartProductVo();
                 cartProductVo.setId(cartItem.getId());
                 cartProductVo.setUserId(userId);
                 cartProductVo.setProductId(cartItem.getProductId());
 
-                Product product = productMapper.selectByPrimaryKey(cartItem.getProductId());
+                Product product = productMap.get(cartItem.getProductId());
                 if(product != null){
                     cartProductVo.setProductMainImage(product.getMainImage());
                     cartProductVo.setProductName(product.getName());
@@ -155,6 +160,14 @@ public class CartServiceImpl implements ICartService {
         return cartVo;
     }
 
+    private Map<Integer,Product> selectProductMap(List<Cart> cartList){
+        Set<Integer> productIdSet = Sets.newHashSet();
+        for(Cart cartItem : cartList){
+            productIdSet.add(cartItem.getProductId());
+        }
+        return productMapper.selectByPrimaryKeys(productIdSet);
+    }
+
     private boolean getAllCheckedStatus(Integer userId){
         if (userId==null){
             return false;
@@ -2,6 +2,7 @@ package com.mmall.service.impl;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.mmall.common.CategoryTree;
 import com.mmall.common.ServerResponse;
 import com.mmall.dao.CategoryMapper;
 import com.mmall.pojo.Category;
@@ -27,6 +28,9 @@ public class CategoryServiceImpl implements ICategoryService {
     @Autowired
     private CategoryMapper categoryMapper;
 
+    @Autowired
+    private CategoryTree categoryTree;
+
     public ServerResponse addCategory(String categoryName,Integer parentId){
         if(parentId == null || StringUtils.isBlank(categoryName)){
             return ServerResponse.createByErrorMessage("添加品类参数错误");
@@ -39,6 +43,7 @@ public class CategoryServiceImpl implements ICategoryService {
 
         int rowCount = categoryMapper.insert(category);
         if(rowCount > 0){
+            categoryTree.refresh();
             return ServerResponse.createBySuccess("添加品类成功");
         }
         return ServerResponse.createByErrorMessage("添加品类失败");
@@ -54,13 +59,19 @@ public class CategoryServiceImpl implements ICategoryService {
 
         int rowCount = categoryMapper.updateByPrimaryKeySelective(category);
         if(rowCount>0){
+            categoryTree.refresh();
             return ServerResponse.createBySuccess("更新品类名字成功");
         }
         return ServerResponse.createByErrorMessage("更新品类名字失败");
     }
 
     public ServerResponse<List<Category>> getChildrenParallelCategory(Integer categoryId){
-        List<Category> categoryList=categoryMapper.selectCategoryChildByParentId(categoryId);
+        List<Category> categoryList;
+        if (categoryId != null && categoryTree.available()) {
+            categoryList = categoryTree.selectChildren(categoryId);
+        } else {
+            categoryList = categoryMapper.selectCategoryChildByParentId(categoryId);
+        }
         if (CollectionUtils.isEmpty(categoryList)){
             log.info("未找到当前分类的子分类");
         }
@@ -68,11 +79,14 @@ public class CategoryServiceImpl implements ICategoryService {
     }
 
     /**
-     * 用递归查询本节点的id以及孩子节点的id
+     * 查询本节点的id以及孩子节点的id，优先使用品类树快照，快照不可用时递归查询数据库
      * @param categoryId
      * @return
      */
     public ServerResponse <List<Integer>>selectCategoryAndChildrenById(Integer categoryId){
+        if (categoryId != null && categoryTree.available()) {
+            return ServerResponse.createBySuccess(categoryTree.selectCategoryAndChildrenIds(categoryId));
+        }
         Set<Category> categorySet = Sets.newHashSet();  //瓜娃中的sets方法进行初始化
         findChildCategory(categorySet,categoryId);
         List<Integer> categoryList = Lists.newArrayList();
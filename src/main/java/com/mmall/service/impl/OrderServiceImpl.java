@@ -12,17 +12,28 @@ import com.alipay.demo.trade.service.impl.AlipayTradeServiceImpl;
 import com.alipay.demo.trade.utils.ZxingUtils;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.mmall.common.Const;
+import com.mmall.common.OrderNoGenerator;
+import com.mmall.common.ResponseCode;
 import com.mmall.common.ServerResponse;
+import com.mmall.common.queue.OrderIntent;
+import com.mmall.common.queue.OrderQueue;
+import com.mmall.common.stock.FlashSaleStock;
 import com.mmall.dao.*;
 import com.mmall.pojo.*;
 import com.mmall.service.IOrderService;
 import com.mmall.util.BigDecimalUtil;
+import com.mmall.util.CursorUtil;
 import com.mmall.util.DateTimeUtil;
 import com.mmall.util.FTPUtil;
 import com.mmall.util.PropertiesUtil;
+import com.mmall.vo.CursorPage;
 import com.mmall.vo.OrderItemVo;
 import com.mmall.vo.OrderProductVo;
 import com.mmall.vo.OrderVo;
@@ -36,6 +47,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import java.io.File;
 import java.io.IOException;
@@ -61,8 +74,19 @@ public class OrderServiceImpl implements IOrderService {
     private ProductMapper productMapper;
     @Autowired
     private ShippingMapper shippingMapper;
+    @Autowired
+    private FlashSaleStock flashSaleStock;
+    @Autowired
+    private OrderNoGenerator orderNoGenerator;
+    @Autowired
+    private OrderQueue orderQueue;
 
+    //订单、订单明细、购物车和库存在同一个事务中修改，库存不足时全部回滚
+    @Transactional
     public ServerResponse createOrder(Integer userId,Integer shippingId){
+        if (!orderNoGenerator.isAvailable()){
+            return ServerResponse.createByErrorMessage("系统繁忙，请稍后再试");
+        }
         //从购物车中获取数据
         List<Cart> cartList = cartMapper.selectCheckedCartByUserId(userId);
 
@@ -72,9 +96,113 @@ public class OrderServiceImpl implements IOrderService {
             return serverResponse;
         }
         List<OrderItem> orderItemList = (List<OrderItem>) serverResponse.getData();
+
+        //秒杀商品先在redis中预扣库存，库存不足的请求不会再修改数据库
+        Map<Integer,Integer> quantityMap = this.mergeQuantity(orderItemList);
+        FlashSaleStock.Reservation reservation = flashSaleStock.reserve(quantityMap);
+        if (!reservation.getSoldOutProductIdSet().isEmpty()){
+            flashSaleStock.release(reservation.getAcceptedMap());
+            return this.stockNotEnough(orderItemList,reservation.getSoldOutProductIdSet());
+        }
+        flashSaleStock.releaseOnRollback(reservation.getAcceptedMap());
+
+        ServerResponse<Order> insertResponse = this.insertOrder(orderNoGenerator.nextOrderNo(),userId,shippingId,orderItemList,
+                this.getCartIdList(cartList),reservation.getAcceptedMap().keySet());
+        if (!insertResponse.isSuccess()){
+            return insertResponse;
+        }
+
+        //返回给前端数据
+        OrderVo orderVo = assembleOrderVo(insertResponse.getData(),orderItemList);
+        return ServerResponse.createBySuccess(orderVo);
+    }
+
+    /**
+     * 异步下单，在请求线程中只校验购物车、预扣库存并放入OrderQueue，由OrderQueueWorker生成订单
+     * 秒杀商品在redis中预扣，普通商品直接扣减数据库库存，每条更新单独提交，库存不足时在这里返回，不会进入队列
+     * 放入队列失败时归还预扣的库存，客户端通过detail.do查询处理结果
+     * 没有开启order.queue.enabled时拒绝，避免没有worker处理时预扣的库存一直不能归还
+     * @param userId
+     * @param shippingId
+     * @return 订单号
+     */
+    public ServerResponse acceptOrder(Integer userId,Integer shippingId){
+        if (!orderQueue.isEnabled()){
+            return ServerResponse.createByErrorMessage("不支持异步下单");
+        }
+        if (!orderNoGenerator.isAvailable()){
+            return ServerResponse.createByErrorMessage("系统繁忙，请稍后再试");
+        }
+        List<Cart> cartList = cartMapper.selectCheckedCartByUserId(userId);
+        ServerResponse serverResponse = this.getCartOrderItem(userId,cartList);
+        if (!serverResponse.isSuccess()){
+            return serverResponse;
+        }
+        List<OrderItem> orderItemList = (List<OrderItem>) serverResponse.getData();
+        //预扣库存之前生成订单号，失败时不需要归还库存
+        long orderNo = orderNoGenerator.nextOrderNo();
+
+        Map<Integer,Integer> quantityMap = this.mergeQuantity(orderItemList);
+        FlashSaleStock.Reservation reservation = flashSaleStock.reserve(quantityMap);
+        if (!reservation.getSoldOutProductIdSet().isEmpty()){
+            flashSaleStock.release(reservation.getAcceptedMap());
+            return this.stockNotEnough(orderItemList,reservation.getSoldOutProductIdSet());
+        }
+        quantityMap.keySet().removeAll(reservation.getAcceptedMap().keySet());
+        Set<Integer> failedProductIdSet = this.reserveProductStock(quantityMap);
+        if (!failedProductIdSet.isEmpty()){
+            Map<Integer,Integer> reservedMap = Maps.newHashMap(quantityMap);
+            reservedMap.keySet().removeAll(failedProductIdSet);
+            this.releaseProductStock(reservedMap);
+            flashSaleStock.release(reservation.getAcceptedMap());
+            return this.stockNotEnough(orderItemList,failedProductIdSet);
+        }
+
+        OrderIntent intent = new OrderIntent(orderNo,userId,shippingId,orderItemList,
+                this.getCartIdList(cartList),reservation.getAcceptedMap(),quantityMap);
+        Long result = orderQueue.offer(intent);
+        if (result == null || result == 0){
+            this.releaseProductStock(quantityMap);
+            flashSaleStock.release(reservation.getAcceptedMap());
+            return ServerResponse.createByErrorMessage(result == null ? "系统繁忙，请稍后再试" : "上一个订单正在处理中");
+        }
+        Map<String,String> resultMap = Maps.newHashMap();
+        resultMap.put("orderNo",String.valueOf(intent.getOrderNo()));
+        return ServerResponse.createBySuccess(resultMap);
+    }
+
+    //回滚时释放预扣的秒杀库存，worker出现异常时不会再重试，下单时扣减的普通商品库存由worker调用releaseOrderIntent归还
+    @Transactional
+    public ServerResponse processOrderIntent(OrderIntent intent){
+        //worker宕机之后重新处理时订单可能已经生成
+        if (orderMapper.selectByOrderNo(intent.getOrderNo()) != null){
+            return ServerResponse.createBySuccess();
+        }
+        flashSaleStock.releaseOnRollback(intent.getFlashSaleMap());
+        Set<Integer> reservedProductIdSet = Sets.union(intent.getFlashSaleMap().keySet(),intent.getReservedStockMap().keySet());
+        ServerResponse<Order> insertResponse = this.insertOrder(intent.getOrderNo(),intent.getUserId(),intent.getShippingId(),
+                intent.getOrderItemList(),intent.getCartIdList(),reservedProductIdSet);
+        if (!insertResponse.isSuccess()){
+            return insertResponse;
+        }
+        return ServerResponse.createBySuccess();
+    }
+
+    //订单没有生成时归还下单时扣减的普通商品库存，只能在处理结果已经记录到OrderQueue之后调用一次
+    public void releaseOrderIntent(OrderIntent intent){
+        this.releaseProductStock(intent.getReservedStockMap());
+    }
+
+    /**
+     * 生成订单和订单明细，清空购物车并扣减库存，需要在事务中调用，库存不足时把事务标记为回滚
+     * @param reservedProductIdSet 已经预扣库存的商品，不再扣减数据库库存，秒杀商品由FlashSaleStock定时同步
+     * @return
+     */
+    private ServerResponse<Order> insertOrder(long orderNo,Integer userId,Integer shippingId,List<OrderItem> orderItemList,
+                                              List<Integer> cartIdList,Set<Integer> reservedProductIdSet){
         BigDecimal payment= this.getOrderTotalPrice(orderItemList);
         //生成订单
-        Order order = this.assembalOrder(userId,shippingId,payment);
+        Order order = this.assembalOrder(orderNo,userId,shippingId,payment);
         if (order==null){
             return ServerResponse.createByErrorMessage("生成订单错误");
         }
@@ -87,15 +215,19 @@ public class OrderServiceImpl implements IOrderService {
         //mybatis 批量插入
         orderItemMapper.batchInsert(orderItemList);
 
-        //生成成功，我们要减少我们产品的库存
-        this.resuceProductStock(orderItemList);
-
         //清空一下购物车
-        this.cleanCart(cartList);
+        this.cleanCart(cartIdList);
 
-        //返回给前端数据
-        OrderVo orderVo = assembleOrderVo(order,orderItemList);
-        return ServerResponse.createBySuccess(orderVo);
+        //生成成功，我们要减少我们产品的库存
+        //放在事务的最后，热点商品的行锁只持有到提交为止
+        Map<Integer,Integer> quantityMap = this.mergeQuantity(orderItemList);
+        quantityMap.keySet().removeAll(reservedProductIdSet);
+        Set<Integer> failedProductIdSet = this.reserveProductStock(quantityMap);
+        if (!failedProductIdSet.isEmpty()){
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return this.stockNotEnough(orderItemList,failedProductIdSet);
+        }
+        return ServerResponse.createBySuccess(order);
     }
 
     public ServerResponse<String> cancel(Integer userId,Long orderNo){
@@ -148,6 +280,14 @@ public class OrderServiceImpl implements IOrderService {
             OrderVo orderVo = assembleOrderVo(order,orderItemList);
             return ServerResponse.createBySuccess(orderVo);
         }
+        //异步下单还在队列中或者处理失败
+        String status = orderQueue.status(userId,orderNo);
+        if (OrderQueue.PROCESSING.equals(status)){
+            return ServerResponse.createByErrorCodeMessage(ResponseCode.PROCESSING.getCode(),"订单正在处理中");
+        }
+        if (status != null){
+            return ServerResponse.createByErrorMessage(status);
+        }
         return  ServerResponse.createByErrorMessage("没有找到该订单");
     }
 
@@ -160,22 +300,36 @@ public class OrderServiceImpl implements IOrderService {
         return ServerResponse.createBySuccess(pageResult);
     }
 
+    //一页订单的明细和收货地址各用一条in查询取出，在内存中按订单分组，userId为null时是管理员查询
     private List<OrderVo> assembleOrderVoList(List<Order> orderList,Integer userId){
         List<OrderVo> orderVoList = Lists.newArrayList();
+        if(CollectionUtils.isEmpty(orderList)){
+            return orderVoList;
+        }
+        Set<Long> orderNoSet = Sets.newLinkedHashSet();
+        Set<Integer> shippingIdSet = Sets.newHashSet();
         for(Order order : orderList){
-            List<OrderItem>  orderItemList = Lists.newArrayList();
-            if(userId == null){
-                //todo 管理员查询的时候 不需要传userId
-                orderItemList = orderItemMapper.getByOrderNo(order.getOrderNo());
-            }else{
-                orderItemList = orderItemMapper.getByOrderNoUserId(order.getOrderNo(),userId);
+            orderNoSet.add(order.getOrderNo());
+            if(order.getShippingId() != null){
+                shippingIdSet.add(order.getShippingId());
             }
-            OrderVo orderVo = assembleOrderVo(order,orderItemList);
+        }
+        ListMultimap<Long,OrderItem> orderItemMap = ArrayListMultimap.create();
+        for(OrderItem orderItem : orderItemMapper.getByOrderNos(orderNoSet,userId)){
+            orderItemMap.put(orderItem.getOrderNo(),orderItem);
+        }
+        Map<Integer,Shipping> shippingMap = shippingIdSet.isEmpty() ? Collections.<Integer,Shipping>emptyMap() : shippingMapper.selectByPrimaryKeys(shippingIdSet);
+        for(Order order : orderList){
+            OrderVo orderVo = assembleOrderVo(order,orderItemMap.get(order.getOrderNo()),shippingMap.get(order.getShippingId()));
             orderVoList.add(orderVo);
         }
         return orderVoList;
     }
     private OrderVo assembleOrderVo(Order order,List<OrderItem> orderItemList){
+        Shipping shipping = order.getShippingId() == null ? null : shippingMapper.selectByPrimaryKey(order.getShippingId());
+        return assembleOrderVo(order,orderItemList,shipping);
+    }
+    private OrderVo assembleOrderVo(Order order,List<OrderItem> orderItemList,Shipping shipping){
         OrderVo orderVo = new OrderVo();
         orderVo.setOrderNo(order.getOrderNo());
         orderVo.setPayment(order.getPayment());
@@ -187,7 +341,6 @@ public class OrderServiceImpl implements IOrderService {
         orderVo.setStatusDesc(Const.OrderStatusEnum.codeOf(order.getStatus()).getValue());
 
         orderVo.setShippingId(order.getShippingId());
-        Shipping shipping = shippingMapper.selectByPrimaryKey(order.getShippingId());
         if(shipping != null){
             orderVo.setReceiverName(shipping.getReceiverName());
             orderVo.setShippingVo(assembleShippingVo(shipping));
@@ -241,24 +394,67 @@ public class OrderServiceImpl implements IOrderService {
         return shippingVo;
     }
 
-    private void cleanCart(List<Cart> cartList){
+    private List<Integer> getCartIdList(List<Cart> cartList){
+        List<Integer> cartIdList = Lists.newArrayList();
         for (Cart cart:cartList){
-            cartMapper.deleteByPrimaryKey(cart.getId());
+            cartIdList.add(cart.getId());
+        }
+        return cartIdList;
+    }
+
+    private void cleanCart(List<Integer> cartIdList){
+        for (Integer cartId:cartIdList){
+            cartMapper.deleteByPrimaryKey(cartId);
+        }
+    }
+
+    //同一个商品出现在多条明细中时合并数量，按productId排序
+    private Map<Integer,Integer> mergeQuantity(List<OrderItem> orderItemList){
+        Map<Integer,Integer> quantityMap = Maps.newTreeMap();
+        for (OrderItem orderItem:orderItemList){
+            Integer quantity = quantityMap.get(orderItem.getProductId());
+            quantityMap.put(orderItem.getProductId(), quantity == null ? orderItem.getQuantity() : quantity + orderItem.getQuantity());
         }
+        return quantityMap;
     }
 
-    private void resuceProductStock(List<OrderItem> orderItemList){
+    /**
+     * 每个商品一条 stock = stock - n where stock >= n 的条件更新，不先查询库存，并发下单时不会超卖
+     * 按productId从小到大更新，并发的订单加行锁的顺序一致，不会互相死锁
+     * 库存不足的商品继续检查其他商品，一次返回所有库存不足的商品，由调用方回滚事务
+     * @param quantityMap mergeQuantity的结果
+     * @return 库存不足的商品，为空表示全部扣减成功
+     */
+    private Set<Integer> reserveProductStock(Map<Integer,Integer> quantityMap){
+        Set<Integer> failedProductIdSet = Sets.newHashSet();
+        for (Map.Entry<Integer,Integer> entry:quantityMap.entrySet()){
+            if (productMapper.decreaseStock(entry.getKey(), entry.getValue()) == 0){
+                failedProductIdSet.add(entry.getKey());
+            }
+        }
+        return failedProductIdSet;
+    }
+
+    //归还reserveProductStock扣减成功的库存
+    private void releaseProductStock(Map<Integer,Integer> quantityMap){
+        for (Map.Entry<Integer,Integer> entry:quantityMap.entrySet()){
+            productMapper.increaseStock(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private ServerResponse stockNotEnough(List<OrderItem> orderItemList,Set<Integer> productIdSet){
+        Set<String> productNameSet = Sets.newLinkedHashSet();
         for (OrderItem orderItem:orderItemList){
-            Product product = productMapper.selectByPrimaryKey(orderItem.getProductId());
-            product.setStock(product.getStock()-orderItem.getQuantity());
-            productMapper.updateByPrimaryKeySelective(product);
+            if (productIdSet.contains(orderItem.getProductId())){
+                productNameSet.add(orderItem.getProductName());
+            }
         }
+        return ServerResponse.createByErrorMessage("产品"+Joiner.on(",").join(productNameSet)+"库存不足");
     }
 
 
-    private Order assembalOrder(Integer userId,Integer shippingId,BigDecimal payment){
+    private Order assembalOrder(long orderNo,Integer userId,Integer shippingId,BigDecimal payment){
         Order order = new Order();
-        long orderNo =this.generateOrderNo();
         order.setOrderNo(orderNo);
         order.setStatus(Const.OrderStatusEnum.NO_PAY.getCode());
         order.setPostage(0);
@@ -277,11 +473,6 @@ public class OrderServiceImpl implements IOrderService {
         return null;
     }
 
-    private long generateOrderNo(){
-        long currentTime =System.currentTimeMillis();
-        return currentTime+new Random().nextInt(100);
-    }
-
     //生成订单总金额
     private BigDecimal getOrderTotalPrice( List<OrderItem> orderItemList ){
         BigDecimal payment = new BigDecimal("0");
@@ -296,14 +487,22 @@ public class OrderServiceImpl implements IOrderService {
         if (CollectionUtils.isEmpty(cartList)){
             return ServerResponse.createByErrorMessage("购物车为空");
         }
-        //校验购物车的数据，包括产品的状态和数量
+        //校验购物车的数据，包括产品的状态和数量，所有商品一次查询
+        Set<Integer> productIdSet = Sets.newHashSet();
+        for (Cart cartItem:cartList){
+            productIdSet.add(cartItem.getProductId());
+        }
+        Map<Integer,Product> productMap = productMapper.selectByPrimaryKeys(productIdSet);
         for (Cart cartItem:cartList){
             OrderItem orderItem = new OrderItem();
-            Product product = productMapper.selectByPrimaryKey(cartItem.getProductId());
+            Product product = productMap.get(cartItem.getProductId());
+            if (product == null){
+                return ServerResponse.createByErrorMessage("产品不存在或者已经删除");
+            }
             if (Const.ProductStatusEnum.ON_SALE.getCode()!=product.getStatus()){
                 return ServerResponse.createByErrorMessage("产品"+product.getName()+"不是在线售卖状态");
             }
-            //校验库存
+            //校验库存，这里只是提前拦截，最终以下单时的条件更新为准
             if (cartItem.getQuantity()>product.getStock()){
                 return ServerResponse.createByErrorMessage("产品"+product.getName()+"库存不足");
             }
@@ -526,6 +725,40 @@ public ServerResponse<PageInfo> manageList(int pageNum,int pageSize){
     return ServerResponse.createBySuccess(pageResult);
 }
 
+    /**
+     * 后台订单列表的keyset分页，按(create_time,id)倒序定位上一页的最后一条，不使用offset也不查询count
+     * @param cursor 空字符串时查询第一页
+     * @param pageSize
+     * @return
+     */
+    public ServerResponse<CursorPage<OrderVo>> manageListByCursor(String cursor, int pageSize) {
+        if (pageSize < 1) {
+            return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
+        }
+        Date lastCreateTime = null;
+        Integer lastId = null;
+        if (StringUtils.isNotEmpty(cursor)) {
+            try {
+                List<String> valueList = CursorUtil.decode(cursor, "createTime", 2);
+                lastCreateTime = new Date(Long.parseLong(valueList.get(0)));
+                lastId = Integer.valueOf(valueList.get(1));
+            } catch (IllegalArgumentException e) {
+                return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
+            }
+        }
+        List<Order> orderList = orderMapper.selectAllOrderAfter(lastCreateTime, lastId, pageSize + 1);
+        CursorPage<OrderVo> cursorPage = new CursorPage<OrderVo>();
+        cursorPage.setPageSize(pageSize);
+        cursorPage.setHasNextPage(orderList.size() > pageSize);
+        if (cursorPage.isHasNextPage()) {
+            orderList = orderList.subList(0, pageSize);
+            Order last = orderList.get(orderList.size() - 1);
+            cursorPage.setNextCursor(CursorUtil.encode("createTime", last.getCreateTime().getTime(), last.getId()));
+        }
+        cursorPage.setList(this.assembleOrderVoList(orderList, null));
+        return ServerResponse.createBySuccess(cursorPage);
+    }
+
 
     public ServerResponse<OrderVo> manageDetail(Long orderNo){
         Order order = orderMapper.selectByOrderNo(orderNo);
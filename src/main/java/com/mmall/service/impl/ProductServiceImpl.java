@@ -1,28 +1,41 @@
 package com.mmall.service.impl;
 
+import com.github.pagehelper.Page;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.mmall.common.Const;
 import com.mmall.common.ResponseCode;
 import com.mmall.common.ServerResponse;
+import com.mmall.common.cache.CacheAside;
+import com.mmall.common.cache.CacheInvalidate;
+import com.mmall.common.cache.TwoLevelCache;
+import com.mmall.common.search.ProductSearchIndex;
 import com.mmall.dao.CategoryMapper;
 import com.mmall.dao.ProductMapper;
 import com.mmall.pojo.Category;
 import com.mmall.pojo.Product;
 import com.mmall.service.ICategoryService;
 import com.mmall.service.IProductService;
+import com.mmall.util.CursorUtil;
 import com.mmall.util.DateTimeUtil;
 import com.mmall.util.PropertiesUtil;
+import com.mmall.vo.CursorPage;
 import com.mmall.vo.ProductDetailVo;
 import com.mmall.vo.ProductListVo;
 import com.sun.corba.se.spi.activation.Server;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.util.ReflectionUtils;
 
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Allen
@@ -30,6 +43,9 @@ import java.util.List;
 @Service("iProductService")
 public class ProductServiceImpl implements IProductService {
 
+    //搜索结果从商品详情的缓存中获取商品信息
+    private static final Method PRODUCT_DETAIL_METHOD = ReflectionUtils.findMethod(ProductServiceImpl.class, "getProductDetail", Integer.class);
+
     @Autowired
     private ProductMapper productMapper;
 
@@ -38,6 +54,12 @@ public class ProductServiceImpl implements IProductService {
 
     @Autowired
     private ICategoryService iCategoryService;
+
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+
+    //更新之后删除商品详情的缓存，新增时id为null，删除的是不存在的key
+    @CacheInvalidate(name = "productDetail", key = "#product?.id")
     public ServerResponse saveOrUpdateProduct(Product product) {
         if (product != null) {
             if (StringUtils.isNotBlank(product.getSubImages())) {
@@ -49,12 +71,14 @@ public class ProductServiceImpl implements IProductService {
             if (product.getId() != null) {
                 int rowCount = productMapper.updateByPrimaryKey(product);
                 if (rowCount > 0) {
+                    productSearchIndex.update(product.getId());
                     return ServerResponse.createBySuccess("更新产品成功");
                 }
                 return ServerResponse.createBySuccess("更新产品失败");
             } else {
                 int rowCount = productMapper.insert(product);
                 if (rowCount > 0) {
+                    productSearchIndex.update(product.getId());
                     return ServerResponse.createBySuccess("新增产品成功");
                 }
                 return ServerResponse.createBySuccess("新增产品失败");
@@ -63,6 +87,7 @@ public class ProductServiceImpl implements IProductService {
         return ServerResponse.createByErrorMessage("新增或者更新产品参数不正确");
     }
 
+    @CacheInvalidate(name = "productDetail", key = "#productId")
     public ServerResponse<String> setSaleStatus(Integer productId, Integer status) {
         if (productId == null || status == null) {
             return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
@@ -72,6 +97,7 @@ public class ProductServiceImpl implements IProductService {
         product.setStatus(status);
         int rowCount = productMapper.updateByPrimaryKeySelective(product);
         if (rowCount > 0) {
+            productSearchIndex.update(productId);
             return ServerResponse.createBySuccess("修改产品销售状态成功");
         }
         return ServerResponse.createByErrorMessage("修改产品销售状态失败");
@@ -131,6 +157,22 @@ public class ProductServiceImpl implements IProductService {
         return ServerResponse.createBySuccess(pageResult);
     }
 
+    public ServerResponse<CursorPage<ProductListVo>> getProductListByCursor(String cursor, int pageSize) {
+        if (pageSize < 1) {
+            return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
+        }
+        Integer lastId = null;
+        if (StringUtils.isNotEmpty(cursor)) {
+            try {
+                lastId = Integer.valueOf(CursorUtil.decode(cursor, "id", 1).get(0));
+            } catch (IllegalArgumentException e) {
+                return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
+            }
+        }
+        List<Product> productList = productMapper.selectListAfter(lastId, pageSize + 1);
+        return ServerResponse.createBySuccess(assembleCursorPage(productList, pageSize, "id"));
+    }
+
     private ProductListVo assembleProductListVo(Product product) {
         ProductListVo productListVo = new ProductListVo();
         productListVo.setId(product.getId());
@@ -145,9 +187,24 @@ public class ProductServiceImpl implements IProductService {
     }
 
     public ServerResponse<PageInfo> searchProduct(String productName, Integer productId, int pageNum, int pageSize) {
+        //按名称搜索时使用内存索引，后台需要看到最新的数据，商品信息直接按主键查询
+        if (productId == null && StringUtils.isNotBlank(productName) && productSearchIndex.isReady()) {
+            Page<Integer> idPage = productSearchIndex.search(productName, null, null, null, pageNum, pageSize);
+            Map<Integer, Product> productMap = idPage.isEmpty() ? Collections.<Integer, Product>emptyMap() : productMapper.selectByPrimaryKeys(idPage);
+            List<ProductListVo> productListVoList = Lists.newArrayList();
+            for (Integer id : idPage) {
+                Product product = productMap.get(id);
+                if (product != null) {
+                    productListVoList.add(assembleProductListVo(product));
+                }
+            }
+            PageInfo pageResult = new PageInfo(idPage);
+            pageResult.setList(productListVoList);
+            return ServerResponse.createBySuccess(pageResult);
+        }
         PageHelper.startPage(pageNum, pageSize);
         if (StringUtils.isNotBlank(productName)) {
-            productName = new StringBuilder().append("%").append(productName).append("%").toString();
+            productName = likeContains(productName);
         }
         List<Product> productList = productMapper.selectByNameAndProductId(productName, productId);
         List<ProductListVo> productListVoList = Lists.newArrayList();
@@ -160,6 +217,12 @@ public class ProductServiceImpl implements IProductService {
         return ServerResponse.createBySuccess(pageResult);
     }
 
+    /**
+     * 前台商品详情，按productId缓存组装好的ProductDetailVo，下架或者不存在的结果不缓存
+     * 热点商品缓存过期时只有一个节点回源，其他请求返回旧值
+     * 库存下单时会变化，这里的stock最多会有redisTtl的延迟，下单时仍然以数据库中的库存为准
+     */
+    @CacheAside(name = "productDetail", key = "#productId", unless = "!#result.success", redisTtl = 300, staleTtl = 60, lease = true)
     public ServerResponse<ProductDetailVo> getProductDetail(Integer productId) {
         if (productId == null) {
             return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
@@ -191,8 +254,11 @@ public class ProductServiceImpl implements IProductService {
             }
             categoryIdList=iCategoryService.selectCategoryAndChildrenById(category.getId()).getData();
         }
+        if (productSearchIndex.isReady()) {
+            return searchByIndex(keyword, categoryIdList, pageNum, pageSize, orderBy);
+        }
         if (StringUtils.isNotBlank(keyword)){
-            keyword = new StringBuilder().append("%").append(keyword).append("%").toString();
+            keyword = likeContains(keyword);
         }
         PageHelper.startPage(pageNum,pageSize);
         //排序处理
@@ -212,4 +278,133 @@ public class ProductServiceImpl implements IProductService {
         pageInfo.setList(productListVoList);
         return ServerResponse.createBySuccess(pageInfo);
     }
+
+    /**
+     * 前台商品列表的keyset分页，按(price,id)或者id定位，不查询count，翻到很深的页也不会变慢
+     * 不走内存索引，和getProductByKeywordCategory的数据库查询条件一致
+     */
+    public ServerResponse<CursorPage<ProductListVo>> getProductByKeywordCategoryByCursor(String keyword, Integer categoryId, String cursor, int pageSize, String orderBy) {
+        if (StringUtils.isBlank(keyword) && categoryId == null || pageSize < 1) {
+            return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
+        }
+        if (!Const.ProductListOrderBy.PRICE_ASC_DESC.contains(orderBy)) {
+            orderBy = "id";
+        }
+        BigDecimal lastPrice = null;
+        Integer lastId = null;
+        if (StringUtils.isNotEmpty(cursor)) {
+            try {
+                if ("id".equals(orderBy)) {
+                    lastId = Integer.valueOf(CursorUtil.decode(cursor, orderBy, 1).get(0));
+                } else {
+                    List<String> valueList = CursorUtil.decode(cursor, orderBy, 2);
+                    lastPrice = new BigDecimal(valueList.get(0));
+                    lastId = Integer.valueOf(valueList.get(1));
+                }
+            } catch (IllegalArgumentException e) {
+                return ServerResponse.createByErrorCodeMessage(ResponseCode.ILLEGAL_ARGUMENT.getCode(), ResponseCode.ILLEGAL_ARGUMENT.getDesc());
+            }
+        }
+        List<Integer> categoryIdList = null;
+        if (categoryId != null) {
+            Category category = categoryMapper.selectByPrimaryKey(categoryId);
+            if (category == null && StringUtils.isBlank(keyword)) {
+                //没有该分类，并且还没有关键字，返回空的结果集
+                return ServerResponse.createBySuccess(assembleCursorPage(Lists.<Product>newArrayList(), pageSize, orderBy));
+            }
+            if (category != null) {
+                categoryIdList = iCategoryService.selectCategoryAndChildrenById(category.getId()).getData();
+            }
+        }
+        if (StringUtils.isNotBlank(keyword)) {
+            keyword = likeContains(keyword);
+        } else {
+            keyword = null;
+        }
+        List<Product> productList = productMapper.selectByNameAndCategoryIdsAfter(keyword, categoryIdList, orderBy, lastPrice, lastId, pageSize + 1);
+        return ServerResponse.createBySuccess(assembleCursorPage(productList, pageSize, orderBy));
+    }
+
+    //productList比pageSize多查一条，多出来的说明还有下一页
+    private CursorPage<ProductListVo> assembleCursorPage(List<Product> productList, int pageSize, String cursorType) {
+        CursorPage<ProductListVo> cursorPage = new CursorPage<ProductListVo>();
+        cursorPage.setPageSize(pageSize);
+        cursorPage.setHasNextPage(productList.size() > pageSize);
+        if (cursorPage.isHasNextPage()) {
+            productList = productList.subList(0, pageSize);
+            Product last = productList.get(productList.size() - 1);
+            if ("id".equals(cursorType)) {
+                cursorPage.setNextCursor(CursorUtil.encode(cursorType, last.getId()));
+            } else {
+                cursorPage.setNextCursor(CursorUtil.encode(cursorType, last.getPrice().toPlainString(), last.getId()));
+            }
+        }
+        List<ProductListVo> productListVoList = Lists.newArrayList();
+        for (Product product : productList) {
+            productListVoList.add(assembleProductListVo(product));
+        }
+        cursorPage.setList(productListVoList);
+        return cursorPage;
+    }
+
+    /**
+     * 数据库查询的关键字，和ProductSearchIndex的匹配规则一致：去掉首尾空格，%和_按普通字符匹配
+     * @param keyword
+     * @return
+     */
+    private static String likeContains(String keyword) {
+        String escaped = keyword.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return new StringBuilder().append("%").append(escaped).append("%").toString();
+    }
+
+    //索引返回当前页的id，商品信息批量从productDetail缓存中获取，没有命中的一次查询数据库
+    private ServerResponse<PageInfo> searchByIndex(String keyword, List<Integer> categoryIdList, int pageNum, int pageSize, String orderBy) {
+        Page<Integer> idPage = productSearchIndex.search(keyword, categoryIdList.size() == 0 ? null : Sets.newHashSet(categoryIdList),
+                Const.ProductStatusEnum.ON_SALE.getCode(), orderBy, pageNum, pageSize);
+        List<String> keyList = Lists.newArrayListWithCapacity(idPage.size());
+        for (Integer productId : idPage) {
+            keyList.add(String.valueOf(productId));
+        }
+        Map<String, Object> cachedMap = keyList.isEmpty() ? Collections.<String, Object>emptyMap()
+                : TwoLevelCache.getOrCreate(PRODUCT_DETAIL_METHOD).getAllPresent(keyList, PRODUCT_DETAIL_METHOD.getGenericReturnType());
+        List<Integer> missIdList = Lists.newArrayList();
+        for (Integer productId : idPage) {
+            if (!cachedMap.containsKey(String.valueOf(productId))) {
+                missIdList.add(productId);
+            }
+        }
+        Map<Integer, Product> productMap = missIdList.isEmpty() ? Collections.<Integer, Product>emptyMap() : productMapper.selectByPrimaryKeys(missIdList);
+
+        List<ProductListVo> productListVoList = Lists.newArrayList();
+        for (Integer productId : idPage) {
+            ServerResponse response = (ServerResponse) cachedMap.get(String.valueOf(productId));
+            if (response != null) {
+                if (response.isSuccess()) {
+                    productListVoList.add(assembleProductListVo((ProductDetailVo) response.getData()));
+                }
+                continue;
+            }
+            //索引更新之前商品可能已经下架，跳过
+            Product product = productMap.get(productId);
+            if (product != null && Integer.valueOf(Const.ProductStatusEnum.ON_SALE.getCode()).equals(product.getStatus())) {
+                productListVoList.add(assembleProductListVo(product));
+            }
+        }
+        PageInfo pageInfo = new PageInfo(idPage);
+        pageInfo.setList(productListVoList);
+        return ServerResponse.createBySuccess(pageInfo);
+    }
+
+    private ProductListVo assembleProductListVo(ProductDetailVo productDetailVo) {
+        ProductListVo productListVo = new ProductListVo();
+        productListVo.setId(productDetailVo.getId());
+        productListVo.setName(productDetailVo.getName());
+        productListVo.setCategoryId(productDetailVo.getCategoryId());
+        productListVo.setImageHost(productDetailVo.getImageHost());
+        productListVo.setMainImage(productDetailVo.getMainImage());
+        productListVo.setPrice(productDetailVo.getPrice());
+        productListVo.setSubtitle(productDetailVo.getSubtitle());
+        productListVo.setStatus(productDetailVo.getStatus());
+        return productListVo;
+    }
 }
@@ -4,6 +4,8 @@ import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import com.google.common.collect.Maps;
 import com.mmall.common.ServerResponse;
+import com.mmall.common.cache.CacheAside;
+import com.mmall.common.cache.CacheInvalidate;
 import com.mmall.dao.ShippingMapper;
 import com.mmall.pojo.Shipping;
 import com.mmall.service.IShippingService;
@@ -34,6 +36,7 @@ public class ShippingServiceImpl implements IShippingService {
         return ServerResponse.createByErrorMessage("新建地址失败");
     }
 
+    @CacheInvalidate(name = "shipping", key = "#userId + ':' + #shippingId")
     public ServerResponse<String> del(Integer userId,Integer shippingId){
         int resultCount = shippingMapper.deleteByShippingIdUserId(userId,shippingId);
         if(resultCount > 0){
@@ -43,6 +46,7 @@ public class ShippingServiceImpl implements IShippingService {
     }
 
 
+    @CacheInvalidate(name = "shipping", key = "#userId + ':' + #shipping.id")
     public ServerResponse update(Integer userId, Shipping shipping){
         shipping.setUserId(userId);
         int rowCount = shippingMapper.updateByShipping(shipping);
@@ -52,6 +56,7 @@ public class ShippingServiceImpl implements IShippingService {
         return ServerResponse.createByErrorMessage("更新地址失败");
     }
 
+    @CacheAside(name = "shipping", key = "#userId + ':' + #shippingId", unless = "!#result.success")
     public ServerResponse<Shipping> select(Integer userId, Integer shippingId){
         Shipping shipping = shippingMapper.selectByShippingIdUserId(userId,shippingId);
         if(shipping == null){
@@ -2,6 +2,8 @@ package com.mmall.service.impl;
 
 import com.mmall.common.Const;
 import com.mmall.common.ServerResponse;
+import com.mmall.common.cache.CacheAside;
+import com.mmall.common.cache.CacheInvalidate;
 import com.mmall.dao.UserMapper;
 import com.mmall.pojo.User;
 import com.mmall.service.IUserService;
@@ -130,6 +132,7 @@ public class UserServiceImpl implements IUserService {
         return ServerResponse.createByErrorMessage("修改密码失败");
     }
 
+    @CacheInvalidate(name = "userInfo", key = "#user.id")
     public ServerResponse<String> resetPassword(String passwordOld,String passwordNew,User user){
         //防止横向越权，要校验一下这个用户的旧密码，一定要指定是这个用户，因为我们会查询count(1)，如果不指定id，那么结果就是true,count>0；
         int resultCount = userMapper.checkPassword(MD5Util.MD5EncodeUtf8(passwordOld),user.getId());
@@ -144,6 +147,7 @@ public class UserServiceImpl implements IUserService {
         return ServerResponse.createByErrorMessage("密码更新失败");
     }
 
+    @CacheInvalidate(name = "userInfo", key = "#user.id")
     public ServerResponse<User> updateInformation(User user){
         //username是不能被更新的
         //email也要进行一个校验，校验新的email是不是已经存在，并且存在的email如果相同的话
@@ -165,6 +169,7 @@ public class UserServiceImpl implements IUserService {
         return ServerResponse.createByErrorMessage("更新个人信息失败");
     }
 
+    @CacheAside(name = "userInfo", key = "#userId", unless = "!#result.success")
     public ServerResponse<User>getInformation(Integer userId){
         User user = userMapper.selectByPrimaryKey(userId);
         if(user==null){
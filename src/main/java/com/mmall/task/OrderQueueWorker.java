@@ -0,0 +1,122 @@
+package com.mmall.task;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mmall.common.ServerResponse;
+import com.mmall.common.queue.OrderIntent;
+import com.mmall.common.queue.OrderQueue;
+import com.mmall.service.IOrderService;
+import com.mmall.util.PropertiesUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Allen
+ * 异步下单的worker，每个线程一次从OrderQueue取走一批请求，逐个在独立的事务中生成订单
+ * 一个订单失败不影响同一批的其他订单
+ * 队列为空时等待pollInterval之后再取，连续为空时等待时间加倍，最多等待maxPollInterval，取到请求之后恢复
+ * 默认不启动，开启order.queue.enabled之后需要处理异步下单的节点配置order.queue.worker.threads
+ */
+@Component
+@Slf4j
+public class OrderQueueWorker {
+
+    private static final int THREADS = Integer.parseInt(PropertiesUtil.getProperty("order.queue.worker.threads", "0"));
+    private static final int BATCH_SIZE = Integer.parseInt(PropertiesUtil.getProperty("order.queue.batch.size", "20"));
+    private static final long POLL_INTERVAL = Long.parseLong(PropertiesUtil.getProperty("order.queue.poll.interval", "50"));
+    private static final long MAX_POLL_INTERVAL = Long.parseLong(PropertiesUtil.getProperty("order.queue.poll.max.interval", "2000"));
+
+    @Autowired
+    private OrderQueue orderQueue;
+
+    @Autowired
+    private IOrderService iOrderService;
+
+    private ExecutorService executorService;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (THREADS <= 0) {
+            log.info("order queue worker disabled");
+            return;
+        }
+        running = true;
+        executorService = Executors.newFixedThreadPool(THREADS,
+                new ThreadFactoryBuilder().setNameFormat("order-queue-worker-%d").setDaemon(true).build());
+        for (int i = 0; i < THREADS; i++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            });
+        }
+        log.info("order queue worker started, threads:{} batchSize:{}", THREADS, BATCH_SIZE);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (executorService != null) {
+            //正在处理的一批完成之后退出，没有完成的超时之后由其他节点重新处理
+            executorService.shutdown();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private void loop() {
+        long pollInterval = POLL_INTERVAL;
+        while (running) {
+            try {
+                OrderQueue.Claim claim = orderQueue.claim(BATCH_SIZE);
+                if (claim.getIntentMap().isEmpty()) {
+                    Thread.sleep(pollInterval);
+                    pollInterval = Math.min(pollInterval * 2, Math.max(MAX_POLL_INTERVAL, POLL_INTERVAL));
+                    continue;
+                }
+                pollInterval = POLL_INTERVAL;
+                for (Map.Entry<String, OrderIntent> entry : claim.getIntentMap().entrySet()) {
+                    process(claim.getToken(), entry.getKey(), entry.getValue());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("order queue worker error", e);
+            }
+        }
+    }
+
+    private void process(long token, String payload, OrderIntent intent) {
+        String failMessage;
+        try {
+            ServerResponse response = iOrderService.processOrderIntent(intent);
+            failMessage = response.isSuccess() ? null : response.getMsg();
+        } catch (DuplicateKeyException e) {
+            //超时之后被重新取走，另一个worker已经生成了订单(order_no唯一索引)，不能归还库存
+            log.warn("order intent already processed orderNo:{}", intent.getOrderNo());
+            failMessage = null;
+        } catch (Exception e) {
+            //事务已经回滚，预扣的秒杀库存也已经释放，不能再重试，由用户重新下单
+            log.error("process order intent error orderNo:{}", intent.getOrderNo(), e);
+            failMessage = "生成订单失败，请重新下单";
+        }
+        //失败已经记录之后才归还下单时扣减的库存，finish失败时请求会被重新处理或者已经由其他worker处理，仍然需要这部分库存
+        if (orderQueue.finish(token, payload, intent, failMessage) && failMessage != null) {
+            try {
+                iOrderService.releaseOrderIntent(intent);
+            } catch (Exception e) {
+                log.error("release order intent stock error orderNo:{} reservedStock:{}", intent.getOrderNo(), intent.getReservedStockMap(), e);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.mmall.util;
 
+import com.mmall.pojo.User;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 
@@ -15,14 +16,24 @@ public class CookieUtil {
     private final static String COOKIE_DOMAIN = ".allen.com";
     //服务端要种到客户端浏览器上的
     private final static String COOKIE_NAME = "mmall_login_token";
+    //签名的登录凭证，见LoginClaimUtil
+    private final static String CLAIM_COOKIE_NAME = "mmall_login_claim";
 
     //读取
     public static String readLoginToken(HttpServletRequest request) {
+        return readCookie(request, COOKIE_NAME);
+    }
+
+    public static String readLoginClaim(HttpServletRequest request) {
+        return readCookie(request, CLAIM_COOKIE_NAME);
+    }
+
+    private static String readCookie(HttpServletRequest request, String cookieName) {
         Cookie[] cks = request.getCookies();
         if (cks != null) {
             for (Cookie ck : cks) {
                 log.info("read cookieName:{},cookieValue:{}", ck.getName(), ck.getValue());
-                if (StringUtils.equals(ck.getName(),COOKIE_NAME)){
+                if (StringUtils.equals(ck.getName(),cookieName)){
                     log.info("return cookieName:{},cookieValue{}",ck.getName(),ck.getValue());
                     return ck.getValue();
                 }
@@ -43,18 +54,41 @@ public class CookieUtil {
         log.info("write cookieName:{},cookieValue:{}", ck.getName(), ck.getValue());
         response.addCookie(ck);
     }
+
+    /**
+     * 写入token，启用了登录凭证模式时同时写入签名的凭证
+     * @param response
+     * @param token
+     * @param user 当前登录的用户
+     */
+    public static void writeLoginToken(HttpServletResponse response, String token, User user) {
+        writeLoginToken(response, token);
+        writeLoginClaim(response, LoginClaimUtil.sign(user, token));
+    }
+
+    public static void writeLoginClaim(HttpServletResponse response, String claim) {
+        if (claim == null) {
+            return;
+        }
+        Cookie ck = new Cookie(CLAIM_COOKIE_NAME, claim);
+        ck.setDomain(COOKIE_DOMAIN);
+        ck.setPath("/");
+        ck.setHttpOnly(true);
+        ck.setMaxAge(LoginClaimUtil.EXPIRE);
+        response.addCookie(ck);
+    }
+
     //删除
     public static void delLoginToken(HttpServletRequest request,HttpServletResponse response){
         Cookie[] cks = request.getCookies();
         if (cks!=null){
             for (Cookie ck : cks){
-                if (StringUtils.equals(ck.getName(),COOKIE_NAME)){
+                if (StringUtils.equals(ck.getName(),COOKIE_NAME) || StringUtils.equals(ck.getName(),CLAIM_COOKIE_NAME)){
                     ck.setDomain(COOKIE_DOMAIN);
                     ck.setPath("/");
                     ck.setMaxAge(0);//设置成0，代表删除此cookie
                     log.info("del cookieName:{},cookieValue:{}",ck.getName(),ck.getValue());
                     response.addCookie(ck);
-                    return;
                 }
             }
         }
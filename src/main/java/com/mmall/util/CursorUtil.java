@@ -0,0 +1,40 @@
+package com.mmall.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+
+import java.util.List;
+
+/**
+ * Created by Allen
+ * keyset分页的cursor，内容是 类型,上一页最后一条的排序字段...,id 的base64url编码
+ * 类型用来区分不同的列表和排序方式，换了排序方式之后旧的cursor不能继续使用
+ */
+public class CursorUtil {
+
+    private static final String SEPARATOR = ",";
+    private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+    public static String encode(String type, Object... values) {
+        return ENCODING.encode(Joiner.on(SEPARATOR).join(Lists.<Object>asList(type, values)).getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * @param cursor
+     * @param type   和encode时的类型不一致时视为非法的cursor
+     * @param length 排序字段和id的个数
+     * @return 排序字段和id
+     * @throws IllegalArgumentException cursor不合法
+     */
+    public static List<String> decode(String cursor, String type, int length) {
+        String content = new String(ENCODING.decode(cursor), Charsets.UTF_8);
+        List<String> valueList = Splitter.on(SEPARATOR).splitToList(content);
+        if (valueList.size() != length + 1 || !type.equals(valueList.get(0))) {
+            throw new IllegalArgumentException("illegal cursor:" + cursor);
+        }
+        return valueList.subList(1, valueList.size());
+    }
+}
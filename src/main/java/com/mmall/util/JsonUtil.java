@@ -8,6 +8,7 @@ import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.codehaus.jackson.type.JavaType;
 import org.codehaus.jackson.type.TypeReference;
+import java.lang.reflect.Type;
 import java.text.SimpleDateFormat;
 
 /**
@@ -98,6 +99,18 @@ public class JsonUtil {
             return null;
         }
     }
+    //按反射得到的类型转换，例如方法的泛型返回类型ServerResponse<User>
+    public static <T> T string2Obj(String str, Type type) {
+        if (StringUtils.isEmpty(str) || type == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(str, objectMapper.getTypeFactory().constructType(type));
+        } catch (Exception e) {
+            log.warn("Parse String to Object error", e);
+            return null;
+        }
+    }
     public static <T> T string2Obj(String str, Class<T> collectionClass, Class<?>... elementClasses) {
         JavaType javaType = objectMapper.getTypeFactory().constructParametricType(collectionClass, elementClasses);
         try {
@@ -0,0 +1,184 @@
+package com.mmall.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.mmall.common.InvalidationBus;
+import com.mmall.pojo.User;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Allen
+ * 无状态的登录凭证：userId.role.expireAt.sid.signature，signature是前面内容的HMAC-SHA256
+ * sid是loginToken的摘要，凭证只和当前登录的session绑定
+ * 凭证只用于标注了@AllowClaim的只读接口，写操作和撤销仍然以redis中的session为准
+ */
+@Slf4j
+public class LoginClaimUtil {
+
+    private static final String SEPARATOR = ".";
+    private static final String INVALIDATION_TYPE = "claim.revoke";
+    //签名截取的长度(16进制字符)，128位
+    private static final int SIGNATURE_LENGTH = 32;
+    private static final int SID_LENGTH = 16;
+
+    private static final String SECRET = PropertiesUtil.getProperty("login.claim.secret");
+    private static final boolean ENABLE = Boolean.parseBoolean(PropertiesUtil.getProperty("login.claim.enable", "false")) && checkSecret();
+    //凭证有效期(秒)，要远小于session的过期时间
+    public static final int EXPIRE = Integer.parseInt(PropertiesUtil.getProperty("login.claim.expire", "60"));
+
+    private static HashFunction hmac = ENABLE ? Hashing.hmacSha256(SECRET.getBytes(Charsets.UTF_8)) : null;
+
+    //已撤销的loginToken，凭证最长只有EXPIRE秒，所以撤销记录也只需要保留这么久
+    private static Cache<String, Boolean> revokedTokens = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(EXPIRE, TimeUnit.SECONDS)
+            .build();
+
+    static {
+        InvalidationBus.register(INVALIDATION_TYPE, new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidate(String loginToken) {
+                revokedTokens.put(loginToken, Boolean.TRUE);
+            }
+        });
+    }
+
+    private static boolean checkSecret() {
+        if (StringUtils.isBlank(SECRET)) {
+            log.error("login.claim.enable为true但是没有配置login.claim.secret，不启用登录凭证");
+            return false;
+        }
+        return true;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLE;
+    }
+
+    /**
+     * 生成登录凭证
+     * @param user
+     * @param loginToken 当前session的token
+     * @return 未启用时返回null
+     */
+    public static String sign(User user, String loginToken) {
+        if (!ENABLE || user == null || StringUtils.isEmpty(loginToken)) {
+            return null;
+        }
+        long expireAt = System.currentTimeMillis() / 1000 + EXPIRE;
+        String payload = user.getId() + SEPARATOR + user.getRole() + SEPARATOR + expireAt + SEPARATOR + sid(loginToken);
+        return payload + SEPARATOR + signature(payload);
+    }
+
+    /**
+     * 校验登录凭证，签名、有效期、sid和撤销记录全部通过才返回
+     * @param claim cookie中的凭证
+     * @param loginToken cookie中的session token
+     * @return 校验不通过返回null
+     */
+    public static LoginClaim verify(String claim, String loginToken) {
+        if (!ENABLE || StringUtils.isEmpty(claim) || StringUtils.isEmpty(loginToken)) {
+            return null;
+        }
+        int index = claim.lastIndexOf(SEPARATOR);
+        if (index < 0) {
+            return null;
+        }
+        String payload = claim.substring(0, index);
+        byte[] expected = signature(payload).getBytes(Charsets.UTF_8);
+        byte[] actual = claim.substring(index + 1).getBytes(Charsets.UTF_8);
+        //使用等时比较，避免通过响应时间猜测签名
+        if (!MessageDigest.isEqual(expected, actual)) {
+            log.warn("login claim signature mismatch");
+            return null;
+        }
+        List<String> parts = Splitter.on(SEPARATOR).splitToList(payload);
+        if (parts.size() != 4 || !StringUtils.equals(parts.get(3), sid(loginToken))) {
+            return null;
+        }
+        try {
+            LoginClaim loginClaim = new LoginClaim(Integer.valueOf(parts.get(0)), Integer.valueOf(parts.get(1)), Long.parseLong(parts.get(2)));
+            if (loginClaim.getExpireAt() <= System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            if (revokedTokens.getIfPresent(loginToken) != null) {
+                return null;
+            }
+            return loginClaim;
+        } catch (NumberFormatException e) {
+            log.warn("login claim payload:{} illegal", payload);
+            return null;
+        }
+    }
+
+    /**
+     * 剩余有效期不足一半时需要重新签发
+     * @param loginClaim
+     * @return
+     */
+    public static boolean needReissue(LoginClaim loginClaim) {
+        return loginClaim.getExpireAt() - System.currentTimeMillis() / 1000 < EXPIRE / 2;
+    }
+
+    /**
+     * 撤销该session签发过的所有凭证，并通知其他节点
+     * @param loginToken
+     */
+    public static void revoke(String loginToken) {
+        if (!ENABLE || StringUtils.isEmpty(loginToken)) {
+            return;
+        }
+        revokedTokens.put(loginToken, Boolean.TRUE);
+        InvalidationBus.publish(INVALIDATION_TYPE, loginToken);
+    }
+
+    private static String sid(String loginToken) {
+        return Hashing.sha256().hashString(loginToken, Charsets.UTF_8).toString().substring(0, SID_LENGTH);
+    }
+
+    private static String signature(String payload) {
+        return hmac.hashString(payload, Charsets.UTF_8).toString().substring(0, SIGNATURE_LENGTH);
+    }
+
+    public static class LoginClaim {
+        private final Integer userId;
+        private final Integer role;
+        //过期时间，单位是秒
+        private final long expireAt;
+
+        LoginClaim(Integer userId, Integer role, long expireAt) {
+            this.userId = userId;
+            this.role = role;
+            this.expireAt = expireAt;
+        }
+
+        public Integer getUserId() {
+            return userId;
+        }
+
+        public Integer getRole() {
+            return role;
+        }
+
+        public long getExpireAt() {
+            return expireAt;
+        }
+
+        //凭证中只有id和role，其他字段为null
+        public User toUser() {
+            User user = new User();
+            user.setId(userId);
+            user.setRole(role);
+            return user;
+        }
+    }
+}
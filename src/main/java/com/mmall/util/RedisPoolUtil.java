@@ -99,6 +99,22 @@ public class RedisPoolUtil {
         return result;
     }
 
+    //发布消息到指定channel，返回收到消息的订阅者数量
+    public static Long publish(String channel,String message){
+        Jedis jedis = null;
+        Long result = null;
+        try {
+            jedis = RedisPool.getJedis();
+            result = jedis.publish(channel,message);
+        } catch (Exception e) {
+            log.error("publish channel:{} message:{} error",channel,message,e);
+            RedisPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisPool.returnResource(jedis);
+        return result;
+    }
+
     public static void main(String[] args) {
             Jedis jedis = RedisPool.getJedis();
             RedisPoolUtil.set("allen","123");
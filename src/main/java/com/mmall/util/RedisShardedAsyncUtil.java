@@ -0,0 +1,319 @@
+package com.mmall.util;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mmall.common.RedisShardedPool;
+import com.mmall.common.ShardCircuitBreaker;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.FutureListener;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.Redisson;
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.RedisConnectionException;
+import org.redisson.client.RedisTimeoutException;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.config.Config;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Created by Allen
+ * RedisShardedPoolUtil的异步版本，返回ListenableFuture，不占用调用线程等待redis的响应
+ * 按RedisShardedPool的一致性hash环找到key所在的分片，每个分片一个Redisson客户端
+ * 和同步版本的约定一致：出现异常或者分片熔断时future的结果是null，不会以异常结束
+ * 一个请求中的多次查询可以先全部发出，再用Futures.getUnchecked或者Futures.allAsList一起等待
+ * 注意：回调在netty的IO线程中执行，Futures.transform等回调中不能再做阻塞操作
+ * 迁移模式下不会去旧拓扑的节点查找，需要迁移的读取仍然使用RedisShardedPoolUtil
+ */
+@Slf4j
+public class RedisShardedAsyncUtil {
+
+    private static final int NETTY_THREADS = Integer.parseInt(PropertiesUtil.getProperty("redis.async.netty.threads", "4"));
+    //每个分片的连接数，异步客户端一个连接上可以同时有多个请求，不需要和同步连接池一样大
+    private static final int POOL_SIZE = Integer.parseInt(PropertiesUtil.getProperty("redis.async.pool.size", "8"));
+    private static final int TIMEOUT = Integer.parseInt(PropertiesUtil.getProperty("redis.timeout", "2000"));
+
+    //key是分片的 host:port
+    private static ConcurrentMap<String, RedissonClient> clientMap = Maps.newConcurrentMap();
+    //创建客户端时每个分片一个锁，一个分片连接超时不会阻塞其他分片的请求
+    private static ConcurrentMap<String, ReentrantLock> clientLockMap = Maps.newConcurrentMap();
+
+    public static ListenableFuture<String> get(final String key) {
+        return execute("get", key, new AsyncCommand<String, String>() {
+            @Override
+            RFuture<String> execute(RedissonClient client) {
+                return client.<String>getBucket(key, StringCodec.INSTANCE).getAsync();
+            }
+        });
+    }
+
+    public static ListenableFuture<byte[]> getBytes(final String key) {
+        return execute("getBytes", key, new AsyncCommand<byte[], byte[]>() {
+            @Override
+            RFuture<byte[]> execute(RedissonClient client) {
+                return client.<byte[]>getBucket(key, ByteArrayCodec.INSTANCE).getAsync();
+            }
+        });
+    }
+
+    /**
+     * get的同时重置有效期，两个命令在一次batch中发送
+     * @param key
+     * @param exTime 单位是秒
+     * @return
+     */
+    public static ListenableFuture<byte[]> getAndExpire(final String key, final int exTime) {
+        return execute("getAndExpire", key, new AsyncCommand<List<?>, byte[]>() {
+            @Override
+            RFuture<List<?>> execute(RedissonClient client) {
+                RBatch batch = client.createBatch();
+                batch.getBucket(key, ByteArrayCodec.INSTANCE).getAsync();
+                batch.getBucket(key, ByteArrayCodec.INSTANCE).expireAsync(exTime, TimeUnit.SECONDS);
+                return batch.executeAsync();
+            }
+
+            @Override
+            byte[] convert(List<?> replies) {
+                return (byte[]) replies.get(0);
+            }
+        });
+    }
+
+    //exTime的单位是秒，成功返回true
+    public static ListenableFuture<Boolean> setEx(final String key, final String value, final int exTime) {
+        return execute("setex", key, new AsyncCommand<Void, Boolean>() {
+            @Override
+            RFuture<Void> execute(RedissonClient client) {
+                return client.<String>getBucket(key, StringCodec.INSTANCE).setAsync(value, exTime, TimeUnit.SECONDS);
+            }
+
+            @Override
+            Boolean convert(Void reply) {
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    public static ListenableFuture<Boolean> setEx(final String key, final byte[] value, final int exTime) {
+        return execute("setex", key, new AsyncCommand<Void, Boolean>() {
+            @Override
+            RFuture<Void> execute(RedissonClient client) {
+                return client.<byte[]>getBucket(key, ByteArrayCodec.INSTANCE).setAsync(value, exTime, TimeUnit.SECONDS);
+            }
+
+            @Override
+            Boolean convert(Void reply) {
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    public static ListenableFuture<Boolean> expire(final String key, final int exTime) {
+        return execute("expire", key, new AsyncCommand<Boolean, Boolean>() {
+            @Override
+            RFuture<Boolean> execute(RedissonClient client) {
+                return client.getBucket(key, StringCodec.INSTANCE).expireAsync(exTime, TimeUnit.SECONDS);
+            }
+        });
+    }
+
+    public static ListenableFuture<Boolean> del(final String key) {
+        return execute("del", key, new AsyncCommand<Boolean, Boolean>() {
+            @Override
+            RFuture<Boolean> execute(RedissonClient client) {
+                return client.getBucket(key, StringCodec.INSTANCE).deleteAsync();
+            }
+        });
+    }
+
+    /**
+     * 批量get，按分片分组之后每个分片一次batch，所有分片同时发送
+     * @param keys
+     * @return 和keys顺序一致，不存在的key、出错或者熔断分片上的key对应null
+     */
+    public static ListenableFuture<List<String>> mget(List<String> keys) {
+        return mget("mget", keys, StringCodec.INSTANCE);
+    }
+
+    public static ListenableFuture<List<byte[]>> mgetBytes(List<String> keys) {
+        return mget("mgetBytes", keys, ByteArrayCodec.INSTANCE);
+    }
+
+    /**
+     * 按RedisShardedPool的一致性hash分组
+     * @param keys
+     * @return 分片的 host:port -> 这个分片上的key在keys中的下标，按第一次出现的顺序排列
+     */
+    public static Map<String, List<Integer>> groupByShard(List<String> keys) {
+        Map<String, List<Integer>> shardMap = Maps.newLinkedHashMap();
+        for (int i = 0; i < keys.size(); i++) {
+            String address = RedisShardedPool.getShardAddress(keys.get(i));
+            List<Integer> indexList = shardMap.get(address);
+            if (indexList == null) {
+                indexList = Lists.newArrayList();
+                shardMap.put(address, indexList);
+            }
+            indexList.add(i);
+        }
+        return shardMap;
+    }
+
+    private static <V> ListenableFuture<List<V>> mget(String command, final List<String> keys, final Codec codec) {
+        final Map<String, List<Integer>> shardMap = groupByShard(keys);
+        final List<ListenableFuture<List<?>>> shardFutureList = Lists.newArrayList();
+        for (final List<Integer> indexList : shardMap.values()) {
+            //同一个分片的key路由结果相同，用第一个key取熔断器和客户端
+            shardFutureList.add(executeOnShard(command, keys.get(indexList.get(0)), new AsyncCommand<List<?>, List<?>>() {
+                @Override
+                RFuture<List<?>> execute(RedissonClient client) {
+                    RBatch batch = client.createBatch();
+                    for (Integer index : indexList) {
+                        batch.getBucket(keys.get(index), codec).getAsync();
+                    }
+                    return batch.executeAsync();
+                }
+            }));
+        }
+        for (String key : keys) {
+            RedisShardedPoolUtil.track(key);
+        }
+        return Futures.transform(Futures.allAsList(shardFutureList), new Function<List<List<?>>, List<V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<V> apply(List<List<?>> shardReplyList) {
+                Object[] values = new Object[keys.size()];
+                int shard = 0;
+                for (List<Integer> indexList : shardMap.values()) {
+                    List<?> replies = shardReplyList.get(shard++);
+                    if (replies == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < indexList.size(); i++) {
+                        values[indexList.get(i)] = replies.get(i);
+                    }
+                }
+                return (List<V>) Lists.newArrayList(values);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static <V, T> ListenableFuture<T> execute(String command, String key, AsyncCommand<V, T> asyncCommand) {
+        RedisShardedPoolUtil.track(key);
+        return executeOnShard(command, key, asyncCommand);
+    }
+
+    //key所在分片熔断时直接返回null，否则发送到该分片的客户端
+    private static <V, T> ListenableFuture<T> executeOnShard(final String command, final String key, final AsyncCommand<V, T> asyncCommand) {
+        final ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()) {
+            return Futures.immediateFuture(null);
+        }
+        final SettableFuture<T> future = SettableFuture.create();
+        RFuture<V> rFuture;
+        try {
+            RedissonClient client = getClient(RedisShardedPool.getShardAddress(key));
+            if (client == null) {
+                return Futures.immediateFuture(null);
+            }
+            rFuture = asyncCommand.execute(client);
+        } catch (Exception e) {
+            //创建客户端时连不上分片同样计入熔断
+            log.error("{} key:{} error", command, key, e);
+            recordFailure(breaker, e);
+            return Futures.immediateFuture(null);
+        }
+        rFuture.addListener(new FutureListener<V>() {
+            @Override
+            public void operationComplete(io.netty.util.concurrent.Future<V> f) {
+                if (!f.isSuccess()) {
+                    log.error("{} key:{} error", command, key, f.cause());
+                    recordFailure(breaker, f.cause());
+                    future.set(null);
+                    return;
+                }
+                breaker.recordSuccess();
+                try {
+                    future.set(asyncCommand.convert(f.getNow()));
+                } catch (Exception e) {
+                    log.error("{} key:{} convert reply error", command, key, e);
+                    future.set(null);
+                }
+            }
+        });
+        return future;
+    }
+
+    private static void recordFailure(ShardCircuitBreaker breaker, Throwable cause) {
+        if (cause instanceof RedisConnectionException || cause instanceof RedisTimeoutException) {
+            breaker.recordConnectionFailure();
+        }
+    }
+
+    //第一次访问某个分片时才创建客户端，Redisson.create会立即建立连接
+    //每个客户端使用自己的EventLoopGroup和executor：Redisson.create连接失败时会关闭传入的线程池，
+    //共用的话一个分片不可用会导致其他分片的客户端也无法使用
+    //其他线程正在创建这个分片的客户端时返回null，调用方不等待连接，结果按redis不可用处理
+    private static RedissonClient getClient(String address) {
+        RedissonClient client = clientMap.get(address);
+        if (client != null) {
+            return client;
+        }
+        ReentrantLock lock = clientLockMap.get(address);
+        if (lock == null) {
+            clientLockMap.putIfAbsent(address, new ReentrantLock());
+            lock = clientLockMap.get(address);
+        }
+        if (!lock.tryLock()) {
+            return null;
+        }
+        try {
+            client = clientMap.get(address);
+            if (client == null) {
+                Config config = new Config();
+                config.setEventLoopGroup(new NioEventLoopGroup(NETTY_THREADS, new DefaultThreadFactory("redis-async-" + address, true)));
+                config.setExecutor(Executors.newFixedThreadPool(NETTY_THREADS,
+                        new ThreadFactoryBuilder().setNameFormat("redis-async-executor-" + address + "-%d").setDaemon(true).build()));
+                //失败之后由熔断器处理，不在客户端内部重试
+                config.useSingleServer()
+                        .setAddress(address)
+                        .setConnectionPoolSize(POOL_SIZE)
+                        .setConnectionMinimumIdleSize(1)
+                        .setConnectTimeout(TIMEOUT)
+                        .setTimeout(TIMEOUT)
+                        .setRetryAttempts(0);
+                client = Redisson.create(config);
+                clientMap.put(address, client);
+                log.info("redis async client for shard {} created", address);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return client;
+    }
+
+    //V是Redisson返回的结果，T是返回给调用方的结果
+    private abstract static class AsyncCommand<V, T> {
+        abstract RFuture<V> execute(RedissonClient client);
+
+        @SuppressWarnings("unchecked")
+        T convert(V reply) {
+            return (T) reply;
+        }
+    }
+}
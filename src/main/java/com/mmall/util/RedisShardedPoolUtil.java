@@ -1,15 +1,57 @@
 package com.mmall.util;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.mmall.common.RedisShardedPool;
+import com.mmall.common.ShardCircuitBreaker;
+import com.mmall.common.monitor.HotKeyTracker;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Allen
+ * key所在分片熔断时直接返回null(批量操作跳过该分片的key)，和出现异常时的返回值一致
+ * 所有访问按比例抽样计入HotKeyTracker，统计热点key和分片的访问倾斜
  */
 @Slf4j
 public class RedisShardedPoolUtil {
+
+    private static HotKeyTracker hotKeyTracker = new HotKeyTracker(
+            Integer.parseInt(PropertiesUtil.getProperty("redis.hotkey.sample.interval","100")),
+            Integer.parseInt(PropertiesUtil.getProperty("redis.hotkey.capacity","200")),
+            Integer.parseInt(PropertiesUtil.getProperty("redis.hotkey.window","60")),
+            RedisShardedPool.getShardAddressList());
+
+    private static final String DEL_IF_EQUALS_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    //KEYS[2]中的版本号(不存在时为0)等于ARGV[1]时才写入
+    private static final byte[] SET_EX_IF_VERSION_SCRIPT = SafeEncoder.encode(
+            "if (redis.call('get', KEYS[2]) or '0') ~= ARGV[1] then return 0 end " +
+            "redis.call('setex', KEYS[1], ARGV[2], ARGV[3]) " +
+            "return 1");
+
+    //返回value和续期之前的ttl，key不存在时返回{nil,-2}
+    private static final byte[] GET_AND_EXPIRE_IF_BELOW_SCRIPT = SafeEncoder.encode(
+            "local v = redis.call('get', KEYS[1]) " +
+            "if not v then return {false, -2} end " +
+            "local ttl = redis.call('ttl', KEYS[1]) " +
+            "if ttl < tonumber(ARGV[2]) then redis.call('expire', KEYS[1], ARGV[1]) end " +
+            "return {v, ttl}");
+
     /**
      * 设置key的有效期，单位是秒
      * @param key
@@ -17,13 +59,20 @@ public class RedisShardedPoolUtil {
      * @return
      */
     public static Long expire(String key,int exTime){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
         ShardedJedis jedis = null;
         Long result = null;
         try {
             jedis = RedisShardedPool.getJedis();
             result = jedis.expire(key,exTime);
+            breaker.recordSuccess();
         } catch (Exception e) {
             log.error("expire key:{} error",key,e);
+            breaker.recordFailure(e);
             RedisShardedPool.returnBrokenResource(jedis);
             return result;
         }
@@ -33,13 +82,20 @@ public class RedisShardedPoolUtil {
 
     //exTime的单位是秒
     public static String setEx(String key,String value,int exTime){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
         ShardedJedis jedis = null;
         String result = null;
         try {
             jedis = RedisShardedPool.getJedis();
             result = jedis.setex(key,exTime,value);
+            breaker.recordSuccess();
         } catch (Exception e) {
             log.error("setex key:{} value:{} error",key,value,e);
+            breaker.recordFailure(e);
             RedisShardedPool.returnBrokenResource(jedis);
             return result;
         }
@@ -48,14 +104,21 @@ public class RedisShardedPoolUtil {
     }
 
     public static String set(String key,String value){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
         ShardedJedis jedis = null;
         String result = null;
 
         try {
             jedis = RedisShardedPool.getJedis();
             result = jedis.set(key,value);
+            breaker.recordSuccess();
         } catch (Exception e) {
             log.error("set key:{} value:{} error",key,value,e);
+            breaker.recordFailure(e);
             RedisShardedPool.returnBrokenResource(jedis);
             return result;
         }
@@ -65,14 +128,175 @@ public class RedisShardedPoolUtil {
 
     //分布式锁时使用
     public static Long setnx(String key,String value){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
         ShardedJedis jedis = null;
         Long result = null;
 
         try {
             jedis = RedisShardedPool.getJedis();
             result = jedis.setnx(key,value);
+            breaker.recordSuccess();
         } catch (Exception e) {
             log.error("setnx key:{} value:{} error",key,value,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * SET key value NX PX millis，用于短时间的租约
+     * @param key
+     * @param value
+     * @param millis 有效期，单位是毫秒
+     * @return 设置成功返回OK，key已经存在返回null
+     */
+    public static String setNxPx(String key,String value,long millis){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        String result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = jedis.set(key,value,"NX","PX",millis);
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("setNxPx key:{} value:{} error",key,value,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * value和当前值相同时才删除，get和del在lua脚本中原子执行
+     * @param key
+     * @param value
+     * @return 删除的数量
+     */
+    public static Long delIfEquals(String key,String value){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        Long result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            //ShardedJedis没有eval，直接使用key所在分片的Jedis
+            result = (Long) jedis.getShard(key).eval(DEL_IF_EQUALS_SCRIPT,1,key,value);
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("delIfEquals key:{} value:{} error",key,value,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * 执行lua脚本，按第一个key选择分片，所有key必须使用相同的{tag}保证在同一个分片上
+     * @param script
+     * @param keys
+     * @param args
+     * @return
+     */
+    public static Object eval(String script,List<String> keys,List<String> args){
+        String key = keys.get(0);
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        Object result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = jedis.getShard(key).eval(script,keys,args);
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("eval keys:{} args:{} error",keys,args,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    public static Long sadd(String key,String member){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        Long result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = jedis.sadd(key,member);
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("sadd key:{} member:{} error",key,member,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    public static Long srem(String key,String member){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        Long result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = jedis.srem(key,member);
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("srem key:{} member:{} error",key,member,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    public static Set<String> smembers(String key){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        Set<String> result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = jedis.smembers(key);
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("smembers key:{} error",key,e);
+            breaker.recordFailure(e);
             RedisShardedPool.returnBrokenResource(jedis);
             return result;
         }
@@ -81,14 +305,21 @@ public class RedisShardedPoolUtil {
     }
 
     public static String getSet(String key,String value){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
         ShardedJedis jedis = null;
         String result = null;
 
         try {
             jedis = RedisShardedPool.getJedis();
             result = jedis.getSet(key,value);
+            breaker.recordSuccess();
         } catch (Exception e) {
             log.error("getSet key:{} value:{} error",key,value,e);
+            breaker.recordFailure(e);
             RedisShardedPool.returnBrokenResource(jedis);
             return result;
         }
@@ -97,13 +328,80 @@ public class RedisShardedPoolUtil {
     }
 
     public static String get(String key){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
         ShardedJedis jedis = null;
         String result = null;
         try {
             jedis = RedisShardedPool.getJedis();
             result = jedis.get(key);
+            if (result == null && migrate(jedis,key)){
+                result = jedis.get(key);
+            }
+            breaker.recordSuccess();
         } catch (Exception e) {
             log.error("get key:{} error",key,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    //二进制value，key仍然是字符串，分片规则和字符串key一致
+    public static String setEx(String key,byte[] value,int exTime){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        String result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = jedis.setex(SafeEncoder.encode(key),exTime,value);
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("setex key:{} error",key,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * 版本号没有变化时才写入，检查和写入在lua脚本中原子执行
+     * versionKey要和key在同一个分片上，使用相同的{key tag}
+     * @param key
+     * @param value
+     * @param exTime
+     * @param versionKey
+     * @param version 写入方读取到的版本号，versionKey不存在时是"0"
+     * @return 1写入，0版本号已经变化，出现异常返回null
+     */
+    public static Long setExIfVersion(String key,byte[] value,int exTime,String versionKey,String version){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        Long result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = (Long) jedis.getShard(key).eval(SET_EX_IF_VERSION_SCRIPT,
+                    Lists.newArrayList(SafeEncoder.encode(key),SafeEncoder.encode(versionKey)),
+                    Lists.newArrayList(SafeEncoder.encode(version),SafeEncoder.encode(String.valueOf(exTime)),value));
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("setExIfVersion key:{} version:{} error",key,version,e);
+            breaker.recordFailure(e);
             RedisShardedPool.returnBrokenResource(jedis);
             return result;
         }
@@ -111,18 +409,454 @@ public class RedisShardedPoolUtil {
         return result;
     }
 
+    public static byte[] getBytes(String key){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        byte[] result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = jedis.get(SafeEncoder.encode(key));
+            if (result == null && migrate(jedis,key)){
+                result = jedis.get(SafeEncoder.encode(key));
+            }
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("getBytes key:{} error",key,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * get的同时重置有效期，两个命令通过pipeline一次发送到key所在的分片
+     * @param key
+     * @param exTime 单位是秒
+     * @return
+     */
+    public static byte[] getAndExpire(String key,int exTime){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        byte[] result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            byte[] binaryKey = SafeEncoder.encode(key);
+            ShardedJedisPipeline pipeline = jedis.pipelined();
+            Response<byte[]> getResponse = pipeline.get(binaryKey);
+            pipeline.expire(binaryKey,exTime);
+            pipeline.sync();
+            result = getResponse.get();
+            if (result == null && migrate(jedis,key)){
+                result = jedis.get(binaryKey);
+                jedis.expire(binaryKey,exTime);
+            }
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("getAndExpire key:{} error",key,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * get、ttl和按需expire在一个lua脚本中完成，只有一次往返
+     * @param key
+     * @param exTime    续期之后的有效期(秒)
+     * @param threshold 剩余有效期低于这个值(秒)或者没有设置有效期时才续期
+     * @return left是value，right是续期之前的剩余有效期(秒)，出现异常返回null
+     */
+    public static Pair<byte[],Long> getAndExpireIfBelow(String key,int exTime,long threshold){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
+        ShardedJedis jedis = null;
+        Pair<byte[],Long> result = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            result = getAndExpireIfBelow(jedis.getShard(key),key,exTime,threshold);
+            if (result.getLeft() == null && migrate(jedis,key)){
+                result = getAndExpireIfBelow(jedis.getShard(key),key,exTime,threshold);
+            }
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("getAndExpireIfBelow key:{} error",key,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    private static Pair<byte[],Long> getAndExpireIfBelow(Jedis shard,String key,int exTime,long threshold){
+        List<Object> reply = (List<Object>) shard.eval(GET_AND_EXPIRE_IF_BELOW_SCRIPT,
+                Collections.singletonList(SafeEncoder.encode(key)),
+                Lists.newArrayList(SafeEncoder.encode(String.valueOf(exTime)),SafeEncoder.encode(String.valueOf(threshold))));
+        return Pair.of((byte[]) reply.get(0),(Long) reply.get(1));
+    }
+
     public static Long del(String key){
+        track(key);
+        ShardCircuitBreaker breaker = RedisShardedPool.getBreaker(key);
+        if (!breaker.allowRequest()){
+            return null;
+        }
         ShardedJedis jedis = null;
         Long result = null;
         try {
             jedis = RedisShardedPool.getJedis();
             result = jedis.del(key);
+            //迁移模式下旧节点上可能还有数据，也要删除，否则之后读取时会被迁移回来
+            delPrevious(Collections.singletonList(key));
+            breaker.recordSuccess();
         } catch (Exception e) {
             log.error("del key:{} error",key,e);
+            breaker.recordFailure(e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * 批量get，按分片分组之后每个分片发送一次mget
+     * @param keys
+     * @return 和keys顺序一致，不存在的key和熔断分片上的key对应null，出现异常返回null
+     */
+    public static List<String> mget(List<String> keys){
+        if (keys == null || keys.isEmpty()){
+            return Collections.emptyList();
+        }
+        track(keys);
+        ShardedJedis jedis = null;
+        List<String> result = null;
+        ShardCircuitBreaker breaker = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            String[] values = new String[keys.size()];
+            for (Map.Entry<Jedis,List<Integer>> entry : groupByShard(jedis,keys).entrySet()){
+                breaker = breakerOf(entry.getKey());
+                if (!breaker.allowRequest()){
+                    continue;
+                }
+                List<Integer> indexList = entry.getValue();
+                String[] shardKeys = new String[indexList.size()];
+                for (int i = 0; i < indexList.size(); i++){
+                    shardKeys[i] = keys.get(indexList.get(i));
+                }
+                List<String> shardValues = entry.getKey().mget(shardKeys);
+                for (int i = 0; i < indexList.size(); i++){
+                    values[indexList.get(i)] = shardValues.get(i);
+                }
+                breaker.recordSuccess();
+            }
+            breaker = null;
+            for (int i = 0; i < values.length; i++){
+                if (values[i] == null && !RedisShardedPool.getBreaker(keys.get(i)).isOpen() && migrate(jedis,keys.get(i))){
+                    values[i] = jedis.get(keys.get(i));
+                }
+            }
+            result = Lists.newArrayList(values);
+        } catch (Exception e) {
+            log.error("mget keys:{} error",keys,e);
+            recordFailure(breaker,e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * 批量getBytes，按分片分组之后每个分片发送一次mget
+     * @param keys
+     * @return 和keys顺序一致，不存在的key和熔断分片上的key对应null，出现异常返回null
+     */
+    public static List<byte[]> mgetBytes(List<String> keys){
+        if (keys == null || keys.isEmpty()){
+            return Collections.emptyList();
+        }
+        track(keys);
+        ShardedJedis jedis = null;
+        List<byte[]> result = null;
+        ShardCircuitBreaker breaker = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            byte[][] values = new byte[keys.size()][];
+            for (Map.Entry<Jedis,List<Integer>> entry : groupByShard(jedis,keys).entrySet()){
+                breaker = breakerOf(entry.getKey());
+                if (!breaker.allowRequest()){
+                    continue;
+                }
+                List<Integer> indexList = entry.getValue();
+                byte[][] shardKeys = new byte[indexList.size()][];
+                for (int i = 0; i < indexList.size(); i++){
+                    shardKeys[i] = SafeEncoder.encode(keys.get(indexList.get(i)));
+                }
+                List<byte[]> shardValues = entry.getKey().mget(shardKeys);
+                for (int i = 0; i < indexList.size(); i++){
+                    values[indexList.get(i)] = shardValues.get(i);
+                }
+                breaker.recordSuccess();
+            }
+            breaker = null;
+            for (int i = 0; i < values.length; i++){
+                if (values[i] == null && !RedisShardedPool.getBreaker(keys.get(i)).isOpen() && migrate(jedis,keys.get(i))){
+                    values[i] = jedis.get(SafeEncoder.encode(keys.get(i)));
+                }
+            }
+            result = Lists.newArrayList(values);
+        } catch (Exception e) {
+            log.error("mgetBytes keys:{} error",keys,e);
+            recordFailure(breaker,e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * 批量setex，按分片分组之后每个分片一次pipeline
+     * @param keyValueMap
+     * @param exTime 单位是秒
+     * @return 设置成功的key的数量，熔断分片上的key不会设置，出现异常返回null
+     */
+    public static Long mSetEx(Map<String,String> keyValueMap,int exTime){
+        if (keyValueMap == null || keyValueMap.isEmpty()){
+            return 0L;
+        }
+        List<String> keys = Lists.newArrayList(keyValueMap.keySet());
+        track(keys);
+        ShardedJedis jedis = null;
+        Long result = null;
+        ShardCircuitBreaker breaker = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            long count = 0;
+            for (Map.Entry<Jedis,List<Integer>> entry : groupByShard(jedis,keys).entrySet()){
+                breaker = breakerOf(entry.getKey());
+                if (!breaker.allowRequest()){
+                    continue;
+                }
+                Pipeline pipeline = entry.getKey().pipelined();
+                for (Integer index : entry.getValue()){
+                    String key = keys.get(index);
+                    pipeline.setex(key,exTime,keyValueMap.get(key));
+                }
+                for (Object reply : pipeline.syncAndReturnAll()){
+                    if ("OK".equals(reply)){
+                        count++;
+                    }
+                }
+                breaker.recordSuccess();
+            }
+            result = count;
+        } catch (Exception e) {
+            log.error("mSetEx keys:{} error",keyValueMap.keySet(),e);
+            recordFailure(breaker,e);
+            RedisShardedPool.returnBrokenResource(jedis);
+            return result;
+        }
+        RedisShardedPool.returnResource(jedis);
+        return result;
+    }
+
+    /**
+     * 批量del，按分片分组之后每个分片发送一次del
+     * @param keys
+     * @return 删除的key的数量，熔断分片上的key不会删除，出现异常返回null
+     */
+    public static Long mdel(List<String> keys){
+        if (keys == null || keys.isEmpty()){
+            return 0L;
+        }
+        track(keys);
+        ShardedJedis jedis = null;
+        Long result = null;
+        ShardCircuitBreaker breaker = null;
+        try {
+            jedis = RedisShardedPool.getJedis();
+            long count = 0;
+            for (Map.Entry<Jedis,List<Integer>> entry : groupByShard(jedis,keys).entrySet()){
+                breaker = breakerOf(entry.getKey());
+                if (!breaker.allowRequest()){
+                    log.warn("mdel skip keys on open shard {}",entry.getKey().getClient().getHost());
+                    continue;
+                }
+                List<Integer> indexList = entry.getValue();
+                String[] shardKeys = new String[indexList.size()];
+                for (int i = 0; i < indexList.size(); i++){
+                    shardKeys[i] = keys.get(indexList.get(i));
+                }
+                count += entry.getKey().del(shardKeys);
+                breaker.recordSuccess();
+            }
+            breaker = null;
+            delPrevious(keys);
+            result = count;
+        } catch (Exception e) {
+            log.error("mdel keys:{} error",keys,e);
+            recordFailure(breaker,e);
             RedisShardedPool.returnBrokenResource(jedis);
             return result;
         }
         RedisShardedPool.returnResource(jedis);
         return result;
     }
+
+    //用ShardedJedisPool的一致性hash环把key按所在分片分组，value是key在原列表中的下标
+    //Jedis没有重写equals，同一个ShardedJedis中每个分片只有一个Jedis实例
+    private static Map<Jedis,List<Integer>> groupByShard(ShardedJedis jedis,List<String> keys){
+        Map<Jedis,List<Integer>> shardMap = Maps.newLinkedHashMap();
+        for (int i = 0; i < keys.size(); i++){
+            Jedis shard = jedis.getShard(keys.get(i));
+            List<Integer> indexList = shardMap.get(shard);
+            if (indexList == null){
+                indexList = Lists.newArrayList();
+                shardMap.put(shard,indexList);
+            }
+            indexList.add(i);
+        }
+        return shardMap;
+    }
+
+    /**
+     * key所在的分片是否可用，熔断期间调用方可以据此走降级逻辑
+     * @param key
+     * @return
+     */
+    public static boolean isAvailable(String key){
+        return !RedisShardedPool.getBreaker(key).isOpen();
+    }
+
+    /**
+     * 热点key和分片访问的统计
+     * @param top 返回访问最多的前top个key
+     * @return
+     */
+    public static Map<String,Object> hotKeySnapshot(int top){
+        return hotKeyTracker.snapshot(top);
+    }
+
+    //抽中之后才计算key所在的分片，RedisShardedAsyncUtil也使用这里统计
+    static void track(String key){
+        if (hotKeyTracker.shouldSample()){
+            hotKeyTracker.record(key,RedisShardedPool.getShardAddress(key));
+        }
+    }
+
+    private static void track(List<String> keys){
+        for (String key : keys){
+            track(key);
+        }
+    }
+
+    private static ShardCircuitBreaker breakerOf(Jedis shard){
+        return ShardCircuitBreaker.of(shard.getClient().getHost(),shard.getClient().getPort());
+    }
+
+    //批量操作中出错的分片，为null说明异常不是在访问某个分片时发生的
+    private static void recordFailure(ShardCircuitBreaker breaker,Exception e){
+        if (breaker != null){
+            breaker.recordFailure(e);
+        }
+    }
+
+    /**
+     * 迁移模式下把key从旧拓扑的节点迁移到新拓扑的节点，使用dump+restore保留剩余的有效期
+     * @param jedis 新拓扑的ShardedJedis
+     * @param key
+     * @return 迁移成功返回true，不在迁移模式、新旧是同一个节点或者旧节点上不存在都返回false
+     */
+    private static boolean migrate(ShardedJedis jedis,String key){
+        if (!RedisShardedPool.isMigrating()){
+            return false;
+        }
+        ShardedJedis previousJedis = null;
+        ShardCircuitBreaker previousBreaker = null;
+        boolean migrated = false;
+        try {
+            previousJedis = RedisShardedPool.getPreviousJedis();
+            if (sameNode(previousJedis.getShardInfo(key),jedis.getShardInfo(key))){
+                RedisShardedPool.returnPreviousResource(previousJedis);
+                return false;
+            }
+            previousBreaker = ShardCircuitBreaker.of(previousJedis.getShardInfo(key));
+            if (!previousBreaker.allowRequest()){
+                RedisShardedPool.returnPreviousResource(previousJedis);
+                return false;
+            }
+            //使用字符串key取分片，保证和普通命令一样按key tag路由
+            Jedis previousShard = previousJedis.getShard(key);
+            byte[] dump = previousShard.dump(key);
+            Long pttl = previousShard.pttl(key);
+            //pttl为-2说明dump之后key已经过期了
+            if (dump != null && pttl != null && pttl != -2){
+                try {
+                    jedis.getShard(key).restore(key,pttl > 0 ? pttl.intValue() : 0,dump);
+                } catch (JedisDataException e) {
+                    //其他请求已经迁移过了或者新节点上已经写入了新值，以新节点为准
+                    log.info("migrate key:{} already exists on new shard",key);
+                }
+                previousShard.del(key);
+                migrated = true;
+            }
+            previousBreaker.recordSuccess();
+        } catch (Exception e) {
+            log.error("migrate key:{} error",key,e);
+            recordFailure(previousBreaker,e);
+            RedisShardedPool.returnPreviousBrokenResource(previousJedis);
+            return false;
+        }
+        RedisShardedPool.returnPreviousResource(previousJedis);
+        return migrated;
+    }
+
+    //迁移模式下删除旧拓扑节点上的key
+    private static void delPrevious(List<String> keys){
+        if (!RedisShardedPool.isMigrating()){
+            return;
+        }
+        ShardedJedis previousJedis = null;
+        try {
+            previousJedis = RedisShardedPool.getPreviousJedis();
+            for (Map.Entry<Jedis,List<Integer>> entry : groupByShard(previousJedis,keys).entrySet()){
+                if (breakerOf(entry.getKey()).isOpen()){
+                    continue;
+                }
+                List<Integer> indexList = entry.getValue();
+                String[] shardKeys = new String[indexList.size()];
+                for (int i = 0; i < indexList.size(); i++){
+                    shardKeys[i] = keys.get(indexList.get(i));
+                }
+                entry.getKey().del(shardKeys);
+            }
+        } catch (Exception e) {
+            log.error("del previous keys:{} error",keys,e);
+            RedisShardedPool.returnPreviousBrokenResource(previousJedis);
+            return;
+        }
+        RedisShardedPool.returnPreviousResource(previousJedis);
+    }
+
+    private static boolean sameNode(JedisShardInfo previous,JedisShardInfo current){
+        return previous.getHost().equals(current.getHost()) && previous.getPort() == current.getPort();
+    }
 }
@@ -0,0 +1,233 @@
+package com.mmall.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mmall.common.Const;
+import com.mmall.common.InvalidationBus;
+import com.mmall.common.codec.SessionCodecs;
+import com.mmall.pojo.User;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Allen
+ * 登录用户session的统一读写，token -> User 存放在RedisShardedPool中，value的编码见SessionCodecs
+ * 本地再加一层有界、按写入时间过期的缓存，session变更时通过InvalidationBus通知所有节点失效
+ * session的有效期采用懒续期：只有剩余时间低于阈值时才发送expire，并且和get合并在一次pipeline中
+ * token所在的redis分片熔断时降级为只使用本地缓存：已缓存的用户保持登录，未缓存的按未登录处理
+ */
+@Slf4j
+public class UserSessionUtil {
+    //标记本次请求是否已经解析过登录用户，解析结果为null时也只解析一次
+    private static final String RESOLVED_FLAG = "currentUserResolved";
+    private static final String LOGIN_TOKEN = "currentLoginToken";
+    private static final String CLAIM_RESOLVED_FLAG = "currentLoginClaimResolved";
+    private static final String LOGIN_CLAIM = "currentLoginClaim";
+    private static final String INVALIDATION_TYPE = "session";
+
+    private static final int LOCAL_CACHE_MAX_SIZE = Integer.parseInt(PropertiesUtil.getProperty("session.local.cache.max.size", "10000"));
+    //本地缓存的过期时间(秒)，兜底pub/sub消息丢失的情况，要远小于session的过期时间
+    private static final int LOCAL_CACHE_EXPIRE = Integer.parseInt(PropertiesUtil.getProperty("session.local.cache.expire", "30"));
+    //剩余有效期低于 REDIS_SESSION_EXTIME * ratio 时才续期
+    private static final double REFRESH_THRESHOLD_RATIO = Double.parseDouble(PropertiesUtil.getProperty("session.refresh.threshold.ratio", "0.5"));
+    private static final long REFRESH_THRESHOLD_MILLIS = (long) (Const.RedisCacheExtime.REDIS_SESSION_EXTIME * 1000L * REFRESH_THRESHOLD_RATIO);
+    //redis的ttl只精确到秒，向上取整后和needRefresh的判断一致
+    private static final long REFRESH_THRESHOLD_SECONDS = (REFRESH_THRESHOLD_MILLIS + 999) / 1000;
+
+    private static AtomicLong refreshIssuedCount = new AtomicLong();
+    private static AtomicLong refreshSkippedCount = new AtomicLong();
+    private static AtomicLong degradedCount = new AtomicLong();
+
+    //只缓存查到的用户，未登录的token每次都回源redis，避免刚登录的用户被判成未登录
+    private static Cache<String, SessionEntry> localCache = CacheBuilder.newBuilder()
+            .maximumSize(LOCAL_CACHE_MAX_SIZE)
+            .expireAfterWrite(LOCAL_CACHE_EXPIRE, TimeUnit.SECONDS)
+            .build();
+
+    static {
+        InvalidationBus.register(INVALIDATION_TYPE, new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidate(String loginToken) {
+                localCache.invalidate(loginToken);
+            }
+        });
+    }
+
+    /**
+     * 获取本次请求的登录用户，一次请求只会查询一次redis，结果缓存在request的attribute中
+     * SessionExpireFilter会在请求进入controller之前先调用一次
+     * @param request
+     * @return 未登录或者session已过期返回null
+     */
+    public static User getCurrentUser(HttpServletRequest request) {
+        if (request.getAttribute(RESOLVED_FLAG) != null) {
+            return (User) request.getAttribute(Const.CURRENT_USER);
+        }
+        User user = null;
+        String loginToken = getLoginToken(request);
+        if (StringUtils.isNotEmpty(loginToken)) {
+            user = getUser(loginToken);
+        }
+        request.setAttribute(Const.CURRENT_USER, user);
+        request.setAttribute(RESOLVED_FLAG, Boolean.TRUE);
+        return user;
+    }
+
+    /**
+     * 校验cookie中的登录凭证，一次请求只校验一次，不访问redis
+     * @param request
+     * @return 未启用、不存在或者校验不通过返回null
+     */
+    public static LoginClaimUtil.LoginClaim getLoginClaim(HttpServletRequest request) {
+        if (request.getAttribute(CLAIM_RESOLVED_FLAG) != null) {
+            return (LoginClaimUtil.LoginClaim) request.getAttribute(LOGIN_CLAIM);
+        }
+        LoginClaimUtil.LoginClaim loginClaim = null;
+        if (LoginClaimUtil.isEnabled()) {
+            loginClaim = LoginClaimUtil.verify(CookieUtil.readLoginClaim(request), getLoginToken(request));
+        }
+        request.setAttribute(LOGIN_CLAIM, loginClaim);
+        request.setAttribute(CLAIM_RESOLVED_FLAG, Boolean.TRUE);
+        return loginClaim;
+    }
+
+    /**
+     * 标注了@AllowClaim的接口使用，优先使用登录凭证，凭证无效时再查询redis中的session
+     * 通过凭证得到的user只有id和role
+     * @param request
+     * @return
+     */
+    public static User getClaimOrCurrentUser(HttpServletRequest request) {
+        LoginClaimUtil.LoginClaim loginClaim = getLoginClaim(request);
+        if (loginClaim != null) {
+            return loginClaim.toUser();
+        }
+        return getCurrentUser(request);
+    }
+
+    //读取cookie中的loginToken，同样只读取一次
+    public static String getLoginToken(HttpServletRequest request) {
+        String loginToken = (String) request.getAttribute(LOGIN_TOKEN);
+        if (loginToken == null) {
+            loginToken = StringUtils.defaultString(CookieUtil.readLoginToken(request));
+            request.setAttribute(LOGIN_TOKEN, loginToken);
+        }
+        return loginToken;
+    }
+
+    /**
+     * 读取登录用户，同时按需续期
+     * 本地缓存命中时根据记录的过期时间判断是否需要续期，需要时get+expire一次pipeline
+     * 本地缓存未命中时用一个lua脚本完成get+ttl，剩余时间不足时在脚本中同时续期
+     * @param loginToken
+     * @return
+     */
+    public static User getUser(String loginToken) {
+        long now = System.currentTimeMillis();
+        SessionEntry entry = localCache.getIfPresent(loginToken);
+        if (entry != null) {
+            if (!needRefresh(entry.expireAt, now)) {
+                refreshSkippedCount.incrementAndGet();
+                return entry.user;
+            }
+            if (!RedisShardedPoolUtil.isAvailable(loginToken)) {
+                return degrade(loginToken, entry);
+            }
+            byte[] userBytes = RedisShardedPoolUtil.getAndExpire(loginToken, Const.RedisCacheExtime.REDIS_SESSION_EXTIME);
+            //返回null可能是这次请求失败导致分片熔断，这时不能当成session已过期
+            if (userBytes == null && !RedisShardedPoolUtil.isAvailable(loginToken)) {
+                return degrade(loginToken, entry);
+            }
+            refreshIssuedCount.incrementAndGet();
+            return cacheUser(loginToken, userBytes, now + Const.RedisCacheExtime.REDIS_SESSION_EXTIME * 1000L);
+        }
+
+        Pair<byte[], Long> valueWithTtl = RedisShardedPoolUtil.getAndExpireIfBelow(loginToken,
+                Const.RedisCacheExtime.REDIS_SESSION_EXTIME, REFRESH_THRESHOLD_SECONDS);
+        if (valueWithTtl == null || valueWithTtl.getLeft() == null) {
+            return null;
+        }
+        //ttl为-1说明key没有设置过期时间，脚本中也已经续期
+        long expireAt = now + valueWithTtl.getRight() * 1000L;
+        if (valueWithTtl.getRight() < REFRESH_THRESHOLD_SECONDS) {
+            refreshIssuedCount.incrementAndGet();
+            expireAt = now + Const.RedisCacheExtime.REDIS_SESSION_EXTIME * 1000L;
+        } else {
+            refreshSkippedCount.incrementAndGet();
+        }
+        return cacheUser(loginToken, valueWithTtl.getLeft(), expireAt);
+    }
+
+    //重新放入本地缓存，熔断期间不会因为本地缓存过期而被登出
+    private static User degrade(String loginToken, SessionEntry entry) {
+        degradedCount.incrementAndGet();
+        localCache.put(loginToken, entry);
+        return entry.user;
+    }
+
+    private static boolean needRefresh(long expireAt, long now) {
+        return expireAt - now < REFRESH_THRESHOLD_MILLIS;
+    }
+
+    private static User cacheUser(String loginToken, byte[] userBytes, long expireAt) {
+        User user = SessionCodecs.decode(userBytes);
+        if (user == null) {
+            localCache.invalidate(loginToken);
+            return null;
+        }
+        localCache.put(loginToken, new SessionEntry(user, expireAt));
+        return user;
+    }
+
+    public static void setUser(String loginToken, User user) {
+        RedisShardedPoolUtil.setEx(loginToken, SessionCodecs.encode(user), Const.RedisCacheExtime.REDIS_SESSION_EXTIME);
+        invalidate(loginToken);
+    }
+
+    public static void delUser(String loginToken) {
+        RedisShardedPoolUtil.del(loginToken);
+        invalidate(loginToken);
+        LoginClaimUtil.revoke(loginToken);
+    }
+
+    /**
+     * 失效本节点和其他节点上该token的本地缓存，下次读取时从redis重新加载
+     * @param loginToken
+     */
+    public static void invalidate(String loginToken) {
+        if (StringUtils.isEmpty(loginToken)) {
+            return;
+        }
+        localCache.invalidate(loginToken);
+        InvalidationBus.publish(INVALIDATION_TYPE, loginToken);
+    }
+
+    public static long getRefreshIssuedCount() {
+        return refreshIssuedCount.get();
+    }
+
+    public static long getRefreshSkippedCount() {
+        return refreshSkippedCount.get();
+    }
+
+    public static long getDegradedCount() {
+        return degradedCount.get();
+    }
+
+    //本地缓存的session，expireAt是按本节点最后一次续期估算的redis key过期时间(毫秒)
+    //其他节点续期只会让实际过期时间更晚，所以按这个时间判断不会漏掉续期
+    private static class SessionEntry {
+        private final User user;
+        private final long expireAt;
+
+        SessionEntry(User user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.mmall.vo;
+
+import java.util.List;
+
+/**
+ * Created by Allen
+ * keyset分页的结果，没有总数和总页数，下一页把nextCursor原样作为cursor参数传回
+ */
+public class CursorPage<T> {
+    private List<T> list;
+    private int pageSize;
+    private boolean hasNextPage;
+    //最后一页为null
+    private String nextCursor;
+
+    public List<T> getList() {
+        return list;
+    }
+
+    public void setList(List<T> list) {
+        this.list = list;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public boolean isHasNextPage() {
+        return hasNextPage;
+    }
+
+    public void setHasNextPage(boolean hasNextPage) {
+        this.hasNextPage = hasNextPage;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
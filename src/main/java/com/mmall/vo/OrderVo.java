@@ -1,5 +1,8 @@
 package com.mmall.vo;
 
+        import org.codehaus.jackson.map.annotate.JsonSerialize;
+        import org.codehaus.jackson.map.ser.std.ToStringSerializer;
+
         import java.math.BigDecimal;
         import java.util.Date;
         import java.util.List;
@@ -9,6 +12,8 @@ package com.mmall.vo;
  */
 public class OrderVo {
 
+    //snowflake订单号超过了js能精确表示的范围(2^53)，输出为字符串
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long orderNo;
 
     private BigDecimal payment;
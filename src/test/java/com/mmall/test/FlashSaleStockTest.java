@@ -0,0 +1,55 @@
+package com.mmall.test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mmall.common.stock.FlashSaleStock;
+import com.mmall.util.RedisShardedPoolUtil;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Created by Allen
+ * redis不可用时秒杀商品不能退回到扣减数据库库存，按库存不足处理
+ * 只在redis不可用时执行
+ */
+public class FlashSaleStockTest {
+
+    private FlashSaleStock flashSaleStock;
+
+    @Before
+    public void setUp() {
+        String probeKey = "flashSaleTestProbe:" + UUID.randomUUID();
+        Assume.assumeFalse("redis available", "OK".equals(RedisShardedPoolUtil.setEx(probeKey, "1", 10)));
+        flashSaleStock = new FlashSaleStock();
+    }
+
+    //还没有读取到秒杀商品时不能确定哪些商品在秒杀，全部拒绝
+    @Test
+    public void rejectAllBeforeLoaded() {
+        FlashSaleStock.Reservation reservation = flashSaleStock.reserve(quantityMap());
+        Assert.assertTrue(reservation.getAcceptedMap().isEmpty());
+        Assert.assertEquals(Sets.newHashSet(1, 2), reservation.getSoldOutProductIdSet());
+    }
+
+    //只拒绝秒杀商品，其他商品由调用方扣减数据库库存
+    @Test
+    public void rejectFlashSaleProduct() {
+        ReflectionTestUtils.setField(flashSaleStock, "flashSaleProductIdSet", Sets.newHashSet(2));
+        FlashSaleStock.Reservation reservation = flashSaleStock.reserve(quantityMap());
+        Assert.assertTrue(reservation.getAcceptedMap().isEmpty());
+        Assert.assertEquals(Sets.newHashSet(2), reservation.getSoldOutProductIdSet());
+    }
+
+    private static Map<Integer, Integer> quantityMap() {
+        Map<Integer, Integer> quantityMap = Maps.newTreeMap();
+        quantityMap.put(1, 1);
+        quantityMap.put(2, 3);
+        return quantityMap;
+    }
+}
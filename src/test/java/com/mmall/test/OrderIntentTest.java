@@ -0,0 +1,58 @@
+package com.mmall.test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mmall.common.queue.OrderIntent;
+import com.mmall.pojo.OrderItem;
+import com.mmall.util.JsonUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Allen
+ * OrderIntent在队列中以json保存，worker解析之后的内容要和放入时一致
+ */
+public class OrderIntentTest {
+
+    @Test
+    public void jsonRoundTrip() {
+        //json中的时间精确到秒
+        Date now = new Date(System.currentTimeMillis() / 1000 * 1000);
+        List<OrderItem> orderItemList = Lists.newArrayList(
+                new OrderItem(null, 1, null, 26, "iphone", "main.jpg", new BigDecimal("6999.00"), 2, new BigDecimal("13998.00"), now, now),
+                new OrderItem(null, 1, null, 27, "手机壳", null, new BigDecimal("0.10"), 1, new BigDecimal("0.10"), null, null));
+        Map<Integer, Integer> flashSaleMap = Maps.newHashMap();
+        flashSaleMap.put(26, 2);
+        Map<Integer, Integer> reservedStockMap = Maps.newTreeMap();
+        reservedStockMap.put(27, 1);
+        OrderIntent intent = new OrderIntent(1491753014256L << 12, 1, 5, orderItemList, Lists.newArrayList(101, 102),
+                flashSaleMap, reservedStockMap);
+
+        OrderIntent parsed = JsonUtil.string2Obj(JsonUtil.obj2String(intent), OrderIntent.class);
+        Assert.assertNotNull(parsed);
+        Assert.assertEquals(intent.getOrderNo(), parsed.getOrderNo());
+        Assert.assertEquals(intent.getUserId(), parsed.getUserId());
+        Assert.assertEquals(intent.getShippingId(), parsed.getShippingId());
+        Assert.assertEquals(intent.getCartIdList(), parsed.getCartIdList());
+        //map的key解析之后仍然是Integer
+        Assert.assertEquals(flashSaleMap, parsed.getFlashSaleMap());
+        Assert.assertEquals(reservedStockMap, parsed.getReservedStockMap());
+        Assert.assertEquals(orderItemList.size(), parsed.getOrderItemList().size());
+        for (int i = 0; i < orderItemList.size(); i++) {
+            OrderItem expected = orderItemList.get(i);
+            OrderItem actual = parsed.getOrderItemList().get(i);
+            Assert.assertEquals(expected.getProductId(), actual.getProductId());
+            Assert.assertEquals(expected.getProductName(), actual.getProductName());
+            Assert.assertEquals(expected.getProductImage(), actual.getProductImage());
+            Assert.assertEquals(expected.getCurrentUnitPrice(), actual.getCurrentUnitPrice());
+            Assert.assertEquals(expected.getQuantity(), actual.getQuantity());
+            Assert.assertEquals(expected.getTotalPrice(), actual.getTotalPrice());
+            Assert.assertEquals(expected.getCreateTime(), actual.getCreateTime());
+        }
+    }
+}
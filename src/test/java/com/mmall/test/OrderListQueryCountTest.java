@@ -0,0 +1,160 @@
+package com.mmall.test;
+
+import com.github.pagehelper.PageInfo;
+import com.github.pagehelper.SqlUtil;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mmall.common.Const;
+import com.mmall.common.ServerResponse;
+import com.mmall.dao.OrderItemMapper;
+import com.mmall.dao.OrderMapper;
+import com.mmall.dao.ShippingMapper;
+import com.mmall.pojo.Order;
+import com.mmall.pojo.OrderItem;
+import com.mmall.pojo.Shipping;
+import com.mmall.service.impl.OrderServiceImpl;
+import com.mmall.vo.CursorPage;
+import com.mmall.vo.OrderVo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Allen
+ * 订单列表组装的查询次数，每页固定为订单、明细、收货地址三条查询，不随订单数量增加
+ * mapper用记录调用次数的动态代理代替，不需要数据库
+ */
+public class OrderListQueryCountTest {
+
+    private static final int ORDER_COUNT = 10;
+    private static final int ITEMS_PER_ORDER = 3;
+    private static final int USER_ID = 1;
+
+    private final List<String> queryList = Lists.newArrayList();
+
+    private OrderServiceImpl orderService;
+
+    @Before
+    public void setUp() {
+        final List<Order> orderList = Lists.newArrayList();
+        final List<OrderItem> orderItemList = Lists.newArrayList();
+        final Map<Integer, Shipping> shippingMap = Maps.newHashMap();
+        for (int i = 0; i < ORDER_COUNT; i++) {
+            Order order = new Order();
+            order.setId(i + 1);
+            order.setOrderNo(1000L + i);
+            order.setUserId(USER_ID);
+            //两个订单使用同一个收货地址
+            order.setShippingId(i / 2 + 1);
+            order.setPaymentType(Const.PaymentTypeEnum.ONLINE_PAY.getCode());
+            order.setStatus(Const.OrderStatusEnum.NO_PAY.getCode());
+            order.setCreateTime(new Date());
+            orderList.add(order);
+            for (int j = 0; j < ITEMS_PER_ORDER; j++) {
+                OrderItem orderItem = new OrderItem();
+                orderItem.setOrderNo(order.getOrderNo());
+                orderItem.setUserId(USER_ID);
+                orderItem.setProductId(j + 1);
+                orderItemList.add(orderItem);
+            }
+            Shipping shipping = new Shipping();
+            shipping.setId(order.getShippingId());
+            shipping.setReceiverName("receiver" + order.getShippingId());
+            shippingMap.put(shipping.getId(), shipping);
+        }
+
+        orderService = new OrderServiceImpl();
+        ReflectionTestUtils.setField(orderService, "orderMapper", countingMapper(OrderMapper.class, new Answer() {
+            @Override
+            public Object answer(Method method, Object[] args) {
+                return Lists.newArrayList(orderList);
+            }
+        }));
+        ReflectionTestUtils.setField(orderService, "orderItemMapper", countingMapper(OrderItemMapper.class, new Answer() {
+            @Override
+            public Object answer(Method method, Object[] args) {
+                Assert.assertEquals("getByOrderNos", method.getName());
+                Collection<Long> orderNoList = (Collection<Long>) args[0];
+                List<OrderItem> resultList = Lists.newArrayList();
+                for (OrderItem orderItem : orderItemList) {
+                    if (orderNoList.contains(orderItem.getOrderNo())) {
+                        resultList.add(orderItem);
+                    }
+                }
+                return resultList;
+            }
+        }));
+        ReflectionTestUtils.setField(orderService, "shippingMapper", countingMapper(ShippingMapper.class, new Answer() {
+            @Override
+            public Object answer(Method method, Object[] args) {
+                Assert.assertEquals("selectByPrimaryKeys", method.getName());
+                Map<Integer, Shipping> resultMap = Maps.newHashMap();
+                for (Integer shippingId : (Collection<Integer>) args[0]) {
+                    resultMap.put(shippingId, shippingMap.get(shippingId));
+                }
+                return resultMap;
+            }
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        //mapper是代理，PageHelper.startPage设置的分页参数没有被消费
+        SqlUtil.clearLocalPage();
+    }
+
+    @Test
+    public void getOrderList() {
+        ServerResponse<PageInfo> response = orderService.getOrderList(USER_ID, 1, ORDER_COUNT);
+        Assert.assertTrue(response.isSuccess());
+        assertOrderVoList((List<OrderVo>) response.getData().getList());
+        Assert.assertEquals(Lists.newArrayList("selectByUserId", "getByOrderNos", "selectByPrimaryKeys"), queryList);
+    }
+
+    @Test
+    public void manageListByCursor() {
+        ServerResponse<CursorPage<OrderVo>> response = orderService.manageListByCursor("", ORDER_COUNT);
+        Assert.assertTrue(response.isSuccess());
+        assertOrderVoList(response.getData().getList());
+        Assert.assertEquals(Lists.newArrayList("selectAllOrderAfter", "getByOrderNos", "selectByPrimaryKeys"), queryList);
+    }
+
+    private void assertOrderVoList(List<OrderVo> orderVoList) {
+        Assert.assertEquals(ORDER_COUNT, orderVoList.size());
+        for (int i = 0; i < ORDER_COUNT; i++) {
+            OrderVo orderVo = orderVoList.get(i);
+            Assert.assertEquals(Long.valueOf(1000L + i), orderVo.getOrderNo());
+            Assert.assertEquals(ITEMS_PER_ORDER, orderVo.getOrderItemVoList().size());
+            Assert.assertEquals(orderVo.getOrderNo(), orderVo.getOrderItemVoList().get(0).getOrderNo());
+            Assert.assertEquals("receiver" + (i / 2 + 1), orderVo.getReceiverName());
+        }
+    }
+
+    private interface Answer {
+        Object answer(Method method, Object[] args);
+    }
+
+    //每次调用mapper记录一条查询
+    private <T> T countingMapper(final Class<T> mapperClass, final Answer answer) {
+        return (T) Proxy.newProxyInstance(mapperClass.getClassLoader(), new Class[]{mapperClass}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getDeclaringClass() == Object.class) {
+                    return method.getName().equals("equals") ? proxy == args[0] : method.getName().equals("hashCode") ? System.identityHashCode(proxy) : mapperClass.getName();
+                }
+                queryList.add(method.getName());
+                return answer.answer(method, args);
+            }
+        });
+    }
+}
@@ -0,0 +1,38 @@
+package com.mmall.test;
+
+import com.mmall.common.OrderNoGenerator;
+import com.mmall.util.PropertiesUtil;
+import com.mmall.util.RedisShardedPoolUtil;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.UUID;
+
+/**
+ * Created by Allen
+ * 没有获得节点id的租约并且没有配置order.no.node.id时拒绝生成订单号，不能随机选择节点id
+ * 只在redis不可用时执行
+ */
+public class OrderNoGeneratorTest {
+
+    @Test
+    public void refuseWithoutLease() {
+        String probeKey = "orderNoTestProbe:" + UUID.randomUUID();
+        Assume.assumeFalse("redis available", "OK".equals(RedisShardedPoolUtil.setEx(probeKey, "1", 10)));
+        Assume.assumeTrue("order.no.node.id configured", PropertiesUtil.getProperty("order.no.node.id") == null);
+
+        OrderNoGenerator orderNoGenerator = new OrderNoGenerator();
+        orderNoGenerator.init();
+        Assert.assertFalse(orderNoGenerator.isAvailable());
+        try {
+            orderNoGenerator.nextOrderNo();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        //续期时仍然获得不了租约
+        orderNoGenerator.renew();
+        Assert.assertFalse(orderNoGenerator.isAvailable());
+    }
+}
@@ -0,0 +1,187 @@
+package com.mmall.test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mmall.common.queue.OrderIntent;
+import com.mmall.common.queue.OrderQueue;
+import com.mmall.pojo.OrderItem;
+import com.mmall.util.RedisShardedPoolUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Created by Allen
+ * OrderQueue的offer、claim、finish和recover脚本
+ * 需要redis，redis不可用或者队列中已经有请求时跳过，不影响正在排队的订单
+ */
+public class OrderQueueTest {
+
+    private static final String PENDING_KEY = "{order_queue}:pending";
+    private static final String PROCESSING_KEY = "{order_queue}:processing";
+
+    private final Random random = new Random();
+
+    private final List<OrderIntent> intentList = Lists.newArrayList();
+
+    private OrderQueue orderQueue;
+
+    @Before
+    public void setUp() {
+        Object pending = RedisShardedPoolUtil.eval("return redis.call('llen', KEYS[1]) + redis.call('zcard', KEYS[2])",
+                Lists.newArrayList(PENDING_KEY, PROCESSING_KEY), Lists.<String>newArrayList());
+        Assume.assumeTrue("redis not available", pending != null);
+        Assume.assumeTrue("order queue not empty", (Long) pending == 0);
+        orderQueue = new OrderQueue();
+    }
+
+    @After
+    public void tearDown() {
+        for (OrderIntent intent : intentList) {
+            RedisShardedPoolUtil.del("{order_queue}:status:" + intent.getOrderNo());
+            RedisShardedPoolUtil.del("{order_queue}:user:" + intent.getUserId());
+        }
+    }
+
+    @Test
+    public void offerClaimFinish() {
+        int userId = -1 - random.nextInt(100000);
+        OrderIntent first = intent(userId);
+        Assert.assertEquals(Long.valueOf(1), orderQueue.offer(first));
+        //同一个用户的订单还在队列中，不能再提交
+        Assert.assertEquals(Long.valueOf(0), orderQueue.offer(intent(userId)));
+        Assert.assertEquals(OrderQueue.PROCESSING, orderQueue.status(userId, first.getOrderNo()));
+        //其他用户查不到
+        Assert.assertNull(orderQueue.status(userId - 1, first.getOrderNo()));
+
+        OrderQueue.Claim claim = orderQueue.claim(10);
+        Map.Entry<String, OrderIntent> claimed = single(claim);
+        Assert.assertEquals(first.getOrderNo(), claimed.getValue().getOrderNo());
+        Assert.assertEquals(first.getReservedStockMap(), claimed.getValue().getReservedStockMap());
+        //已经被取走，不会被其他worker重复取到
+        Assert.assertTrue(orderQueue.claim(10).getIntentMap().isEmpty());
+        Assert.assertEquals(OrderQueue.PROCESSING, orderQueue.status(userId, first.getOrderNo()));
+
+        //失败时记录原因，用户可以重新下单
+        Assert.assertTrue(orderQueue.finish(claim.getToken(), claimed.getKey(), claimed.getValue(), "库存不足"));
+        Assert.assertEquals("库存不足", orderQueue.status(userId, first.getOrderNo()));
+        assertProcessingEmpty();
+
+        OrderIntent second = intent(userId);
+        Assert.assertEquals(Long.valueOf(1), orderQueue.offer(second));
+        claim = orderQueue.claim(10);
+        claimed = single(claim);
+        Assert.assertEquals(second.getOrderNo(), claimed.getValue().getOrderNo());
+        //成功时删除status，之后由数据库中的订单返回
+        Assert.assertTrue(orderQueue.finish(claim.getToken(), claimed.getKey(), claimed.getValue(), null));
+        Assert.assertNull(orderQueue.status(userId, second.getOrderNo()));
+        assertProcessingEmpty();
+    }
+
+    //按放入的顺序取出
+    @Test
+    public void claimInOrder() {
+        List<Long> orderNoList = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            OrderIntent intent = intent(-1 - random.nextInt(100000) * 10 - i);
+            Assert.assertEquals(Long.valueOf(1), orderQueue.offer(intent));
+            orderNoList.add(intent.getOrderNo());
+        }
+        List<Long> claimedList = Lists.newArrayList();
+        OrderQueue.Claim claim = orderQueue.claim(3);
+        Assert.assertEquals(3, claim.getIntentMap().size());
+        finishAll(claim, claimedList);
+        claim = orderQueue.claim(3);
+        Assert.assertEquals(2, claim.getIntentMap().size());
+        finishAll(claim, claimedList);
+        Assert.assertEquals(orderNoList, claimedList);
+        assertProcessingEmpty();
+    }
+
+    //worker取走之后没有finish，超时之后recover放回队列，再次被取到
+    @Test
+    public void recover() {
+        OrderIntent intent = intent(-1 - random.nextInt(100000));
+        Assert.assertEquals(Long.valueOf(1), orderQueue.offer(intent));
+        OrderQueue.Claim claim = orderQueue.claim(10);
+        Map.Entry<String, OrderIntent> claimed = single(claim);
+
+        //没有超时的不会放回
+        orderQueue.recover();
+        Assert.assertTrue(orderQueue.claim(10).getIntentMap().isEmpty());
+
+        expire(claimed.getKey());
+        orderQueue.recover();
+        OrderQueue.Claim reclaim = orderQueue.claim(10);
+        Map.Entry<String, OrderIntent> reclaimed = single(reclaim);
+        Assert.assertEquals(claimed.getKey(), reclaimed.getKey());
+        Assert.assertEquals(OrderQueue.PROCESSING, orderQueue.status(intent.getUserId(), intent.getOrderNo()));
+        Assert.assertTrue(orderQueue.finish(reclaim.getToken(), reclaimed.getKey(), reclaimed.getValue(), null));
+        assertProcessingEmpty();
+    }
+
+    //超时被重新取走之后，原来的worker不能再finish，结果由新的worker记录
+    @Test
+    public void finishByStaleOwner() throws InterruptedException {
+        OrderIntent intent = intent(-1 - random.nextInt(100000));
+        Assert.assertEquals(Long.valueOf(1), orderQueue.offer(intent));
+        OrderQueue.Claim claim = orderQueue.claim(10);
+        Map.Entry<String, OrderIntent> claimed = single(claim);
+
+        expire(claimed.getKey());
+        orderQueue.recover();
+        //token是取走的毫秒数，保证两次取走的token不同
+        Thread.sleep(2);
+        OrderQueue.Claim reclaim = orderQueue.claim(10);
+        Map.Entry<String, OrderIntent> reclaimed = single(reclaim);
+        Assert.assertNotEquals(claim.getToken(), reclaim.getToken());
+
+        Assert.assertFalse(orderQueue.finish(claim.getToken(), claimed.getKey(), claimed.getValue(), "生成订单失败，请重新下单"));
+        Assert.assertEquals(OrderQueue.PROCESSING, orderQueue.status(intent.getUserId(), intent.getOrderNo()));
+        Assert.assertTrue(orderQueue.finish(reclaim.getToken(), reclaimed.getKey(), reclaimed.getValue(), null));
+        Assert.assertNull(orderQueue.status(intent.getUserId(), intent.getOrderNo()));
+        //已经完成之后原来的worker同样不能finish
+        Assert.assertFalse(orderQueue.finish(claim.getToken(), claimed.getKey(), claimed.getValue(), "生成订单失败，请重新下单"));
+        Assert.assertNull(orderQueue.status(intent.getUserId(), intent.getOrderNo()));
+        assertProcessingEmpty();
+    }
+
+    //把取走的时间改成很久之前
+    private void expire(String payload) {
+        RedisShardedPoolUtil.eval("return redis.call('zadd', KEYS[1], 'XX', 0, ARGV[1])",
+                Lists.newArrayList(PROCESSING_KEY), Lists.newArrayList(payload));
+    }
+
+    private void finishAll(OrderQueue.Claim claim, List<Long> claimedList) {
+        for (Map.Entry<String, OrderIntent> entry : claim.getIntentMap().entrySet()) {
+            claimedList.add(entry.getValue().getOrderNo());
+            Assert.assertTrue(orderQueue.finish(claim.getToken(), entry.getKey(), entry.getValue(), null));
+        }
+    }
+
+    private static Map.Entry<String, OrderIntent> single(OrderQueue.Claim claim) {
+        Assert.assertEquals(1, claim.getIntentMap().size());
+        return claim.getIntentMap().entrySet().iterator().next();
+    }
+
+    private void assertProcessingEmpty() {
+        Assert.assertEquals(0L, RedisShardedPoolUtil.eval("return redis.call('zcard', KEYS[1])",
+                Lists.newArrayList(PROCESSING_KEY), Lists.<String>newArrayList()));
+    }
+
+    //测试使用负数的用户id，不会和真实用户冲突
+    private OrderIntent intent(int userId) {
+        Map<Integer, Integer> reservedStockMap = Maps.newHashMap();
+        reservedStockMap.put(26, 1);
+        OrderIntent intent = new OrderIntent(Math.abs(random.nextLong()), userId, 1, Lists.<OrderItem>newArrayList(),
+                Lists.newArrayList(1), Maps.<Integer, Integer>newHashMap(), reservedStockMap);
+        intentList.add(intent);
+        return intent;
+    }
+}
@@ -0,0 +1,209 @@
+package com.mmall.test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.mmall.common.Const;
+import com.mmall.pojo.Product;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Allen
+ * 商品列表查询Base_Column_List和List_Column_List的对比，10万个商品，每个商品带几KB的detail
+ * 两条查询使用相同的条件，分别引用ProductMapper.xml中的BaseResultMap和ListResultMap
+ * 需要datasource.properties中配置的数据库，连接不上时跳过
+ */
+public class ProductListProjectionBenchmarkTest {
+
+    private static final int PRODUCT_COUNT = 100000;
+    private static final int INSERT_BATCH_SIZE = 1000;
+    //测试数据使用不存在的分类，结束之后按分类删除
+    private static final int CATEGORY_ID = -18;
+    private static final int PAGE_SIZE = 20;
+    private static final int PAGES = 500;
+
+    private static final String NAMESPACE = "benchmark.ProductListProjection";
+    private static final String BENCHMARK_MAPPER =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>" +
+            "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\" >" +
+            "<mapper namespace=\"" + NAMESPACE + "\">" +
+            "<select id=\"selectBase\" resultMap=\"com.mmall.dao.ProductMapper.BaseResultMap\" parameterType=\"map\">" +
+            "select <include refid=\"com.mmall.dao.ProductMapper.Base_Column_List\"/> from mmall_product " +
+            "where category_id = #{categoryId} order by id limit #{offset}, #{limit}" +
+            "</select>" +
+            "<select id=\"selectList\" resultMap=\"com.mmall.dao.ProductMapper.ListResultMap\" parameterType=\"map\">" +
+            "select <include refid=\"com.mmall.dao.ProductMapper.List_Column_List\"/> from mmall_product " +
+            "where category_id = #{categoryId} order by id limit #{offset}, #{limit}" +
+            "</select>" +
+            "</mapper>";
+
+    private static ClassPathXmlApplicationContext context;
+    private static DataSource dataSource;
+    private static SqlSessionFactory sqlSessionFactory;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        context = new ClassPathXmlApplicationContext("applicationContext-datasource.xml");
+        try {
+            Connection connection = context.getBean(DataSource.class).getConnection();
+            connection.close();
+        } catch (Exception e) {
+            context.close();
+            context = null;
+            Assume.assumeNoException("database not available", e);
+        }
+        dataSource = context.getBean(DataSource.class);
+        sqlSessionFactory = context.getBean(SqlSessionFactory.class);
+        Configuration configuration = sqlSessionFactory.getConfiguration();
+        new XMLMapperBuilder(new ByteArrayInputStream(BENCHMARK_MAPPER.getBytes("UTF-8")), configuration,
+                NAMESPACE, configuration.getSqlFragments()).parse();
+        deleteProducts();
+        insertProducts();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        if (context != null) {
+            deleteProducts();
+            context.close();
+        }
+    }
+
+    @Test
+    public void compare() {
+        //先各执行一次预热，数据页进入buffer pool
+        scan("selectBase");
+        scan("selectList");
+
+        long baseScan = scan("selectBase");
+        long listScan = scan("selectList");
+        long basePages = pages("selectBase");
+        long listPages = pages("selectList");
+        System.out.println("products:" + PRODUCT_COUNT + " full scan Base_Column_List:" + baseScan + "ms List_Column_List:" + listScan + "ms");
+        System.out.println("pages:" + PAGES + " pageSize:" + PAGE_SIZE + " Base_Column_List:" + basePages + "ms List_Column_List:" + listPages + "ms");
+
+        SqlSession sqlSession = sqlSessionFactory.openSession();
+        try {
+            Product base = sqlSession.<Product>selectList(NAMESPACE + ".selectBase", params(0, 1)).get(0);
+            Product list = sqlSession.<Product>selectList(NAMESPACE + ".selectList", params(0, 1)).get(0);
+            Assert.assertNotNull(base.getDetail());
+            Assert.assertNull(list.getDetail());
+            Assert.assertNull(list.getSubImages());
+            Assert.assertEquals(base.getName(), list.getName());
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    private long scan(String statement) {
+        SqlSession sqlSession = sqlSessionFactory.openSession();
+        try {
+            long start = System.nanoTime();
+            List<Product> productList = sqlSession.selectList(NAMESPACE + "." + statement, params(0, PRODUCT_COUNT));
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertEquals(PRODUCT_COUNT, productList.size());
+            return millis;
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    //随机翻页，模拟列表页的访问
+    private long pages(String statement) {
+        Random random = new Random(18);
+        SqlSession sqlSession = sqlSessionFactory.openSession();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < PAGES; i++) {
+                int offset = random.nextInt(PRODUCT_COUNT / PAGE_SIZE) * PAGE_SIZE;
+                //每次查询之前清空一级缓存，和每个请求使用新的SqlSession一致
+                sqlSession.clearCache();
+                Assert.assertEquals(PAGE_SIZE, sqlSession.selectList(NAMESPACE + "." + statement, params(offset, PAGE_SIZE)).size());
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    private static Map<String, Object> params(int offset, int limit) {
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("categoryId", CATEGORY_ID);
+        params.put("offset", offset);
+        params.put("limit", limit);
+        return params;
+    }
+
+    //直接使用jdbc批量插入，每个商品的detail约4KB
+    private static void insertProducts() throws Exception {
+        String detail = "<p>" + Strings.repeat("<img src=\"http://img.happymmall.com/detail.jpg\" alt=\"detail\"/>", 60) + "</p>";
+        String subImages = Strings.repeat("sub.jpg,", 10);
+        long start = System.nanoTime();
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement("insert into mmall_product (category_id, name, subtitle, main_image, " +
+                    "sub_images, detail, price, stock, status, create_time, update_time) values (?, ?, ?, ?, ?, ?, ?, ?, ?, now(), now())");
+            for (int i = 0; i < PRODUCT_COUNT; i++) {
+                statement.setInt(1, CATEGORY_ID);
+                statement.setString(2, "benchmark product " + i);
+                statement.setString(3, "subtitle " + i);
+                statement.setString(4, "main.jpg");
+                statement.setString(5, subImages);
+                statement.setString(6, detail);
+                statement.setBigDecimal(7, new BigDecimal(i % 1000));
+                statement.setInt(8, 100);
+                statement.setInt(9, Const.ProductStatusEnum.ON_SALE.getCode());
+                statement.addBatch();
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                    connection.commit();
+                }
+            }
+            statement.close();
+            Statement query = connection.createStatement();
+            ResultSet resultSet = query.executeQuery("select sum(length(detail) + length(sub_images)), sum(length(name) + length(subtitle) + length(main_image)) " +
+                    "from mmall_product where category_id = " + CATEGORY_ID);
+            resultSet.next();
+            System.out.println("inserted:" + PRODUCT_COUNT + " cost:" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms"
+                    + " detail+sub_images bytes:" + resultSet.getLong(1) + " list text bytes:" + resultSet.getLong(2));
+            resultSet.close();
+            query.close();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+            connection.close();
+        }
+    }
+
+    private static void deleteProducts() throws Exception {
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.executeUpdate("delete from mmall_product where category_id = " + CATEGORY_ID);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
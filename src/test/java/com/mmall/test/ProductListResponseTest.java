@@ -0,0 +1,120 @@
+package com.mmall.test;
+
+import com.google.common.collect.Maps;
+import com.mmall.common.ServerResponse;
+import com.mmall.controller.portal.ProductController;
+import com.mmall.service.IProductService;
+import com.mmall.util.JsonUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.support.XmlWebApplicationContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Created by Allen
+ * 商品列表返回ResponseCache序列化好的JSON，使用dispatcher-servlet.xml中的message converter输出，响应体必须是JSON对象
+ * 只保留ProductController，IProductService用动态代理代替，不需要数据库
+ */
+public class ProductListResponseTest {
+
+    private XmlWebApplicationContext context;
+
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() {
+        context = new XmlWebApplicationContext();
+        context.setServletContext(new MockServletContext());
+        context.setConfigLocation("file:src/main/webapp/WEB-INF/dispatcher-servlet.xml");
+        context.addBeanFactoryPostProcessor(new BeanDefinitionRegistryPostProcessor() {
+            @Override
+            public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) throws BeansException {
+                //其他controller依赖的service不在这个context中
+                for (String beanName : registry.getBeanDefinitionNames()) {
+                    String className = registry.getBeanDefinition(beanName).getBeanClassName();
+                    if (className != null && className.startsWith("com.mmall.controller.") && className.endsWith("Controller")
+                            && !className.equals(ProductController.class.getName())) {
+                        registry.removeBeanDefinition(beanName);
+                    }
+                }
+            }
+
+            @Override
+            public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+                beanFactory.registerSingleton("iProductService", Proxy.newProxyInstance(IProductService.class.getClassLoader(),
+                        new Class[]{IProductService.class}, new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                Map<String, Object> data = Maps.newLinkedHashMap();
+                                data.put("method", method.getName());
+                                data.put("keyword", args[0]);
+                                return ServerResponse.createBySuccess(data);
+                            }
+                        }));
+            }
+        });
+        context.refresh();
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void list() throws Exception {
+        //keyword每次不同，第一次不命中缓存，第二次命中
+        String keyword = UUID.randomUUID().toString();
+        assertJson(get("/product/list.do").param("keyword", keyword), "getProductByKeywordCategory", keyword);
+        assertJson(get("/product/list.do").param("keyword", keyword), "getProductByKeywordCategory", keyword);
+        assertJson(get("/product/list.do").param("keyword", keyword).header("Accept", "application/json"), "getProductByKeywordCategory", keyword);
+    }
+
+    @Test
+    public void listByCursor() throws Exception {
+        String keyword = UUID.randomUUID().toString();
+        assertJson(get("/product/list.do").param("keyword", keyword).param("cursor", ""), "getProductByKeywordCategoryByCursor", keyword);
+    }
+
+    @Test
+    public void listRESTful() throws Exception {
+        String keyword = UUID.randomUUID().toString();
+        assertJson(get("/product/" + keyword + "/100012/1/10/price_asc"), "getProductByKeywordCategory", keyword);
+        assertJson(get("/product/keyword/" + keyword + "/1/10/price_asc"), "getProductByKeywordCategory", keyword);
+        assertJson(get("/product/category/100012/1/10/price_asc"), "getProductByKeywordCategory", "");
+    }
+
+    private void assertJson(MockHttpServletRequestBuilder request, String method, String keyword) throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(request).andReturn().getResponse();
+        Assert.assertEquals(200, response.getStatus());
+        byte[] body = response.getContentAsByteArray();
+        Assert.assertEquals(body.length, response.getContentLength());
+        Assert.assertTrue(response.getContentType().startsWith("application/json"));
+        String json = new String(body, "UTF-8");
+        Assert.assertTrue(json, json.startsWith("{"));
+        Map result = JsonUtil.string2Obj(json, Map.class);
+        Assert.assertEquals(0, result.get("status"));
+        Map data = (Map) result.get("data");
+        Assert.assertEquals(method, data.get("method"));
+        Assert.assertEquals(keyword, data.get("keyword"));
+    }
+}
@@ -0,0 +1,171 @@
+package com.mmall.test;
+
+import com.github.pagehelper.Page;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.mmall.common.search.ProductSearchIndex;
+import com.mmall.dao.ProductMapper;
+import com.mmall.pojo.Product;
+import com.mmall.service.impl.ProductServiceImpl;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Created by Allen
+ * 内存索引的搜索结果和数据库回退查询的语义一致：
+ * (name like ? or subtitle like ?)，like的参数由ProductServiceImpl.likeContains生成，mysql默认排序规则不区分大小写
+ * 数据库的like在测试中转换成正则表达式执行，不需要数据库
+ */
+public class ProductSearchIndexTest {
+
+    private static final int PRODUCT_COUNT = 500;
+    //包含大小写、中文和like的通配符，生成的名称之间有较多重叠
+    private static final String ALPHABET = "aAbB苹果手机壳华为%_ 1";
+
+    private final Random random = new Random(42);
+
+    private List<Product> productList;
+
+    private ProductSearchIndex productSearchIndex;
+
+    private Method likeContains;
+
+    @Before
+    public void setUp() throws Exception {
+        productList = Lists.newArrayList();
+        for (int i = 1; i <= PRODUCT_COUNT; i++) {
+            Product product = new Product();
+            product.setId(i);
+            product.setCategoryId(100000 + random.nextInt(5));
+            product.setStatus(random.nextInt(3) + 1);
+            product.setPrice(new BigDecimal(random.nextInt(20)));
+            product.setName(randomText(1 + random.nextInt(8)));
+            product.setSubtitle(random.nextInt(5) == 0 ? null : randomText(random.nextInt(8)));
+            productList.add(product);
+        }
+        productSearchIndex = new ProductSearchIndex();
+        ReflectionTestUtils.setField(productSearchIndex, "productMapper", Proxy.newProxyInstance(ProductMapper.class.getClassLoader(),
+                new Class[]{ProductMapper.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        Assert.assertEquals("selectList", method.getName());
+                        return productList;
+                    }
+                }));
+        productSearchIndex.rebuild();
+        Assert.assertTrue(productSearchIndex.isReady());
+
+        likeContains = ProductServiceImpl.class.getDeclaredMethod("likeContains", String.class);
+        likeContains.setAccessible(true);
+    }
+
+    @Test
+    public void sameAsLike() throws Exception {
+        List<String> keywordList = Lists.newArrayList("a", "A", "ab", "苹果", "手机壳", "%", "_", "a%", "_b", " 华为 ", "1 a", "不存在");
+        for (int i = 0; i < 200; i++) {
+            keywordList.add(randomText(1 + random.nextInt(3)));
+        }
+        for (Product product : productList.subList(0, 50)) {
+            //取名称中的一段，保证有结果
+            int from = random.nextInt(product.getName().length());
+            keywordList.add(product.getName().substring(from, from + 1 + random.nextInt(product.getName().length() - from)));
+        }
+        for (String keyword : keywordList) {
+            if (keyword.trim().length() == 0) {
+                continue;
+            }
+            Pattern pattern = likeToPattern((String) likeContains.invoke(null, keyword));
+            assertSameResult(keyword, pattern, null, null, null);
+            assertSameResult(keyword, pattern, Sets.newHashSet(100001, 100003), 1, "price_asc");
+            assertSameResult(keyword, pattern, null, 1, "price_desc");
+        }
+    }
+
+    @Test
+    public void paging() {
+        Page<Integer> allPage = productSearchIndex.search("a", null, null, null, 1, PRODUCT_COUNT);
+        Assert.assertTrue(allPage.getTotal() > 20);
+        List<Integer> pagedIdList = Lists.newArrayList();
+        for (int pageNum = 1; pagedIdList.size() < allPage.getTotal(); pageNum++) {
+            Page<Integer> page = productSearchIndex.search("a", null, null, null, pageNum, 7);
+            Assert.assertEquals(allPage.getTotal(), page.getTotal());
+            Assert.assertFalse(page.isEmpty());
+            pagedIdList.addAll(page);
+        }
+        Assert.assertEquals(Lists.newArrayList(allPage), pagedIdList);
+    }
+
+    private void assertSameResult(String keyword, Pattern pattern, Set<Integer> categoryIdSet, Integer status, String orderBy) {
+        List<Product> expectedList = Lists.newArrayList();
+        for (Product product : productList) {
+            if (categoryIdSet != null && !categoryIdSet.contains(product.getCategoryId())) {
+                continue;
+            }
+            if (status != null && !status.equals(product.getStatus())) {
+                continue;
+            }
+            if (matches(pattern, product.getName()) || matches(pattern, product.getSubtitle())) {
+                expectedList.add(product);
+            }
+        }
+        final int direction = "price_asc".equals(orderBy) ? 1 : "price_desc".equals(orderBy) ? -1 : 0;
+        Collections.sort(expectedList, new Comparator<Product>() {
+            @Override
+            public int compare(Product o1, Product o2) {
+                int result = o1.getPrice().compareTo(o2.getPrice()) * direction;
+                return result != 0 ? result : o1.getId().compareTo(o2.getId());
+            }
+        });
+        List<Integer> expectedIdList = Lists.newArrayList();
+        for (Product product : expectedList) {
+            expectedIdList.add(product.getId());
+        }
+        Page<Integer> page = productSearchIndex.search(keyword, categoryIdSet, status, orderBy, 1, PRODUCT_COUNT);
+        Assert.assertEquals("keyword:[" + keyword + "]", expectedIdList, Lists.newArrayList(page));
+        Assert.assertEquals(expectedIdList.size(), page.getTotal());
+    }
+
+    //和数据库一样，null不匹配任何like
+    private static boolean matches(Pattern pattern, String text) {
+        return text != null && pattern.matcher(text).matches();
+    }
+
+    //mysql的like：%任意个字符，_一个字符，\转义，不区分大小写
+    private static Pattern likeToPattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length()) {
+                regex.append(Pattern.quote(String.valueOf(like.charAt(++i))));
+            } else if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append(".");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
+    private String randomText(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+}
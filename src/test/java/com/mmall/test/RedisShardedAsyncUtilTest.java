@@ -0,0 +1,146 @@
+package com.mmall.test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.mmall.common.RedisShardedPool;
+import com.mmall.util.RedisShardedAsyncUtil;
+import com.mmall.util.RedisShardedPoolUtil;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Created by Allen
+ * 异步redis客户端的分片路由和future的结果
+ * 路由和不可用时的结果不需要redis，读写redis的测试在redis不可用时跳过
+ */
+public class RedisShardedAsyncUtilTest {
+
+    private static final int KEY_COUNT = 100;
+
+    @Test
+    public void groupByShard() {
+        List<String> keyList = Lists.newArrayList();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keyList.add("async:test:" + i);
+        }
+        //相同key tag的key在同一个分片
+        keyList.add("{async:tag}:a");
+        keyList.add("{async:tag}:b");
+
+        Map<String, List<Integer>> shardMap = RedisShardedAsyncUtil.groupByShard(keyList);
+        Assert.assertEquals(Sets.newHashSet(RedisShardedPool.getShardAddressList()), shardMap.keySet());
+        Set<Integer> indexSet = Sets.newHashSet();
+        for (Map.Entry<String, List<Integer>> entry : shardMap.entrySet()) {
+            List<Integer> indexList = entry.getValue();
+            for (int i = 0; i < indexList.size(); i++) {
+                Assert.assertEquals(entry.getKey(), RedisShardedPool.getShardAddress(keyList.get(indexList.get(i))));
+                Assert.assertTrue(indexSet.add(indexList.get(i)));
+                if (i > 0) {
+                    Assert.assertTrue(indexList.get(i) > indexList.get(i - 1));
+                }
+            }
+        }
+        Assert.assertEquals(keyList.size(), indexSet.size());
+        Assert.assertEquals(RedisShardedPool.getShardAddress("{async:tag}:a"), RedisShardedPool.getShardAddress("{async:tag}:b"));
+    }
+
+    //redis不可用时future以null完成，不会以异常结束，批量查询的结果和keys一一对应
+    @Test
+    public void unavailableCompletesWithNull() throws Exception {
+        Assume.assumeFalse("redis available", redisAvailable());
+        String key = "async:test:" + UUID.randomUUID();
+        Assert.assertNull(RedisShardedAsyncUtil.get(key).get(10, TimeUnit.SECONDS));
+        Assert.assertNull(RedisShardedAsyncUtil.setEx(key, "value", 10).get(10, TimeUnit.SECONDS));
+        List<byte[]> valueList = RedisShardedAsyncUtil.mgetBytes(Lists.newArrayList(key, key + ":1", key + ":2")).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(Arrays.asList(null, null, null), valueList);
+    }
+
+    //其他线程正在创建分片的客户端时不等待，future立即以null完成
+    @Test
+    public void creatingClientDoesNotBlock() throws Exception {
+        final String address = "127.0.0.1:1";
+        final ReentrantLock lock = new ReentrantLock();
+        Field field = RedisShardedAsyncUtil.class.getDeclaredField("clientLockMap");
+        field.setAccessible(true);
+        ConcurrentMap<String, ReentrantLock> clientLockMap = (ConcurrentMap<String, ReentrantLock>) field.get(null);
+        Method getClient = RedisShardedAsyncUtil.class.getDeclaredMethod("getClient", String.class);
+        getClient.setAccessible(true);
+        Assert.assertNull(clientLockMap.putIfAbsent(address, lock));
+        final CountDownLatch lockedLatch = new CountDownLatch(1);
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        Thread creator = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lock.lock();
+                try {
+                    lockedLatch.countDown();
+                    releaseLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        creator.start();
+        try {
+            Assert.assertTrue(lockedLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertNull(getClient.invoke(null, address));
+        } finally {
+            releaseLatch.countDown();
+            creator.join();
+            clientLockMap.remove(address);
+        }
+    }
+
+    @Test
+    public void readWrite() throws Exception {
+        Assume.assumeTrue("redis not available", redisAvailable());
+        String prefix = "async:test:" + UUID.randomUUID() + ":";
+        List<String> keyList = Lists.newArrayList();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keyList.add(prefix + i);
+        }
+        //奇数下标不写入，mget时对应null
+        for (int i = 0; i < KEY_COUNT; i += 2) {
+            Assert.assertTrue(Futures.getUnchecked(RedisShardedAsyncUtil.setEx(keyList.get(i), ("value" + i).getBytes("UTF-8"), 60)));
+        }
+        List<byte[]> valueList = RedisShardedAsyncUtil.mgetBytes(keyList).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(KEY_COUNT, valueList.size());
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (i % 2 == 0) {
+                Assert.assertEquals("value" + i, new String(valueList.get(i), "UTF-8"));
+                //同步客户端按同样的分片规则能读到
+                Assert.assertEquals("value" + i, new String(RedisShardedPoolUtil.getBytes(keyList.get(i)), "UTF-8"));
+            } else {
+                Assert.assertNull(valueList.get(i));
+            }
+        }
+        Assert.assertEquals("value0", new String(RedisShardedAsyncUtil.getAndExpire(keyList.get(0), 120).get(10, TimeUnit.SECONDS), "UTF-8"));
+        for (int i = 0; i < KEY_COUNT; i += 2) {
+            Assert.assertTrue(Futures.getUnchecked(RedisShardedAsyncUtil.del(keyList.get(i))));
+        }
+        Assert.assertNull(RedisShardedAsyncUtil.get(keyList.get(0)).get(10, TimeUnit.SECONDS));
+    }
+
+    private static boolean redisAvailable() {
+        String probeKey = "async:test:probe:" + UUID.randomUUID();
+        boolean available = "OK".equals(RedisShardedPoolUtil.setEx(probeKey, "1", 10));
+        RedisShardedPoolUtil.del(probeKey);
+        return available;
+    }
+}
@@ -0,0 +1,67 @@
+package com.mmall.test;
+
+import com.mmall.common.codec.AvroSessionCodec;
+import com.mmall.common.codec.JsonSessionCodec;
+import com.mmall.common.codec.SessionCodec;
+import com.mmall.common.codec.SessionCodecs;
+import com.mmall.pojo.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Created by Allen
+ * session value编码的对比：payload大小和解码耗时
+ */
+public class SessionCodecBenchmarkTest {
+
+    private static final int WARM_UP = 20000;
+    private static final int ROUNDS = 100000;
+
+    private User sessionUser() {
+        //和登录成功之后放到redis中的user一致，密码已经被置空
+        return new User(10086, "allen", "", "allen@happymmall.com", "13800138000",
+                "我最喜欢的颜色", "蓝色", 0, new Date(), new Date());
+    }
+
+    @Test
+    public void roundTrip() {
+        User user = sessionUser();
+        User decoded = SessionCodecs.decode(new AvroSessionCodec().encode(user));
+        Assert.assertEquals(user.getId(), decoded.getId());
+        Assert.assertEquals(user.getUsername(), decoded.getUsername());
+        Assert.assertEquals(user.getEmail(), decoded.getEmail());
+        Assert.assertEquals(user.getPhone(), decoded.getPhone());
+        Assert.assertEquals(user.getRole(), decoded.getRole());
+        Assert.assertNull(decoded.getQuestion());
+
+        //旧的json格式同样可以读取
+        decoded = SessionCodecs.decode(new JsonSessionCodec().encode(user));
+        Assert.assertEquals(user.getAnswer(), decoded.getAnswer());
+    }
+
+    @Test
+    public void compare() {
+        User user = sessionUser();
+        byte[] json = new JsonSessionCodec().encode(user);
+        byte[] avro = new AvroSessionCodec().encode(user);
+        System.out.println("json size:" + json.length + " avro size:" + avro.length);
+        Assert.assertTrue(avro.length < json.length);
+
+        long jsonNanos = decode(json);
+        long avroNanos = decode(avro);
+        System.out.println("json decode:" + jsonNanos / ROUNDS + "ns/op avro decode:" + avroNanos / ROUNDS + "ns/op");
+    }
+
+    private long decode(byte[] data) {
+        for (int i = 0; i < WARM_UP; i++) {
+            SessionCodecs.decode(data);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            SessionCodecs.decode(data);
+        }
+        return System.nanoTime() - start;
+    }
+}
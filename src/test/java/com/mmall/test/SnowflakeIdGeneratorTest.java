@@ -0,0 +1,134 @@
+package com.mmall.test;
+
+import com.mmall.common.SnowflakeIdGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Allen
+ * 订单号生成器的唯一性、递增和时钟回拨
+ */
+public class SnowflakeIdGeneratorTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 250000;
+
+    //可以手动调整的时钟
+    private static class ManualClockGenerator extends SnowflakeIdGenerator {
+        private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+
+        ManualClockGenerator(long nodeId) {
+            super(nodeId);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now.get();
+        }
+    }
+
+    @Test
+    public void uniqueAcrossThreads() throws InterruptedException {
+        final SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+        final long[][] ids = new long[THREADS][IDS_PER_THREAD];
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final long[] threadIds = ids[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < IDS_PER_THREAD; j++) {
+                        threadIds[j] = generator.nextId();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        long start = System.nanoTime();
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println("threads:" + THREADS + " ids:" + THREADS * IDS_PER_THREAD + " cost:" + nanos / 1000000 + "ms "
+                + (long) THREADS * IDS_PER_THREAD * 1000000000L / nanos + " ids/s ahead:" + generator.getAheadMillis() + "ms");
+
+        long[] allIds = new long[THREADS * IDS_PER_THREAD];
+        for (int i = 0; i < THREADS; i++) {
+            //每个线程拿到的id递增
+            for (int j = 1; j < IDS_PER_THREAD; j++) {
+                Assert.assertTrue(ids[i][j] > ids[i][j - 1]);
+            }
+            System.arraycopy(ids[i], 0, allIds, i * IDS_PER_THREAD, IDS_PER_THREAD);
+        }
+        Arrays.sort(allIds);
+        for (int i = 1; i < allIds.length; i++) {
+            Assert.assertTrue("duplicate id:" + allIds[i], allIds[i] != allIds[i - 1]);
+        }
+    }
+
+    @Test
+    public void clockMovedBackwards() {
+        ManualClockGenerator generator = new ManualClockGenerator(3);
+        long last = generator.nextId();
+        //回拨1秒，不等待，继续递增
+        generator.now.addAndGet(-1000);
+        for (int i = 0; i < 10000; i++) {
+            long id = generator.nextId();
+            Assert.assertTrue(id > last);
+            last = id;
+        }
+        Assert.assertTrue(generator.getAheadMillis() > 0);
+        //时钟追上之后恢复使用系统时间
+        generator.now.addAndGet(2000);
+        long id = generator.nextId();
+        Assert.assertTrue(id > last);
+        Assert.assertEquals(generator.now.get() - SnowflakeIdGenerator.EPOCH,
+                id >>> (SnowflakeIdGenerator.NODE_ID_BITS + SnowflakeIdGenerator.SEQUENCE_BITS));
+        Assert.assertEquals(0, generator.getAheadMillis());
+    }
+
+    @Test
+    public void sequenceOverflow() {
+        //同一毫秒内超过4096个，借用下一毫秒
+        ManualClockGenerator generator = new ManualClockGenerator(3);
+        long last = generator.nextId();
+        for (int i = 0; i < 10000; i++) {
+            long id = generator.nextId();
+            Assert.assertTrue(id > last);
+            last = id;
+        }
+        Assert.assertEquals(2, generator.getAheadMillis());
+    }
+
+    @Test
+    public void layout() {
+        ManualClockGenerator generator = new ManualClockGenerator(SnowflakeIdGenerator.MAX_NODE_ID);
+        ManualClockGenerator other = new ManualClockGenerator(5);
+        other.now.set(generator.now.get());
+        long id = generator.nextId();
+        Assert.assertTrue(id > 0);
+        Assert.assertEquals(SnowflakeIdGenerator.MAX_NODE_ID, (id >>> SnowflakeIdGenerator.SEQUENCE_BITS) & SnowflakeIdGenerator.MAX_NODE_ID);
+        //同一毫秒不同节点的id不同
+        Assert.assertNotEquals(id, other.nextId());
+
+        //更换节点id之后仍然递增
+        SnowflakeIdGenerator changed = generator.withNodeId(0);
+        Assert.assertTrue(changed.nextId() > id);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalNodeId() {
+        new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID + 1);
+    }
+}
@@ -0,0 +1,152 @@
+package com.mmall.test;
+
+import com.mmall.common.Const;
+import com.mmall.dao.ProductMapper;
+import com.mmall.pojo.Product;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Allen
+ * 单个热点商品并发扣减库存的对比：先查询再写回 和 条件更新
+ * 需要datasource.properties中配置的数据库，连接不上时跳过
+ */
+public class StockReservationBenchmarkTest {
+
+    private static final int STOCK = 2000;
+    private static final int THREADS = 32;
+    //每个线程下单的次数，总次数大于库存，库存会被抢完
+    private static final int ATTEMPTS = 100;
+
+    private static ClassPathXmlApplicationContext context;
+    private static ProductMapper productMapper;
+    private static TransactionTemplate transactionTemplate;
+
+    private Integer productId;
+
+    @BeforeClass
+    public static void setUpClass() {
+        context = new ClassPathXmlApplicationContext("applicationContext-datasource.xml");
+        try {
+            Connection connection = context.getBean(DataSource.class).getConnection();
+            connection.close();
+        } catch (Exception e) {
+            context.close();
+            context = null;
+            Assume.assumeNoException("database not available", e);
+        }
+        productMapper = context.getBean(ProductMapper.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Product product = new Product();
+        product.setCategoryId(0);
+        product.setName("stock benchmark");
+        product.setPrice(new BigDecimal("1.00"));
+        product.setStock(STOCK);
+        product.setStatus(Const.ProductStatusEnum.ON_SALE.getCode());
+        productMapper.insert(product);
+        productId = product.getId();
+    }
+
+    @After
+    public void tearDown() {
+        if (productId != null) {
+            productMapper.deleteByPrimaryKey(productId);
+        }
+    }
+
+    @Test
+    public void readModifyWrite() throws InterruptedException {
+        //原来的做法：读出库存，在java中相减再写回，并发时后写的覆盖先写的
+        int success = run(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean doInTransaction(TransactionStatus status) {
+                Product product = productMapper.selectByPrimaryKey(productId);
+                if (product.getStock() < 1) {
+                    return false;
+                }
+                Product productForStock = new Product();
+                productForStock.setId(productId);
+                productForStock.setStock(product.getStock() - 1);
+                productMapper.updateByPrimaryKeySelective(productForStock);
+                return true;
+            }
+        }, "read-modify-write");
+        int stock = productMapper.selectByPrimaryKey(productId).getStock();
+        System.out.println("read-modify-write success:" + success + " stock left:" + stock + " oversold:" + (success - (STOCK - stock)));
+    }
+
+    @Test
+    public void guardedUpdate() throws InterruptedException {
+        int success = run(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean doInTransaction(TransactionStatus status) {
+                return productMapper.decreaseStock(productId, 1) == 1;
+            }
+        }, "guarded update");
+        int stock = productMapper.selectByPrimaryKey(productId).getStock();
+        System.out.println("guarded update success:" + success + " stock left:" + stock);
+        Assert.assertEquals(STOCK, success);
+        Assert.assertEquals(0, stock);
+    }
+
+    private int run(final TransactionCallback<Boolean> reservation, String name) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicInteger success = new AtomicInteger();
+        for (int i = 0; i < THREADS; i++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < ATTEMPTS; j++) {
+                        if (transactionTemplate.execute(reservation)) {
+                            success.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        startLatch.countDown();
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(5, TimeUnit.MINUTES));
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        System.out.println(name + " threads:" + THREADS + " attempts:" + THREADS * ATTEMPTS
+                + " cost:" + millis + "ms throughput:" + THREADS * ATTEMPTS * 1000L / millis + "/s");
+        return success.get();
+    }
+}
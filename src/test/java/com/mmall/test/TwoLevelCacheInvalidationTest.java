@@ -0,0 +1,117 @@
+package com.mmall.test;
+
+import com.mmall.common.cache.CacheAside;
+import com.mmall.common.cache.TwoLevelCache;
+import com.mmall.util.RedisShardedPoolUtil;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Allen
+ * 回源期间发生invalidate时，回源拿到的旧值不能写回缓存
+ * 回源先读到旧数据，然后修改数据并invalidate，最后回源结束，之后的读取要拿到新数据
+ * 只使用本地缓存的测试不需要redis，使用redis的测试在redis不可用时跳过
+ */
+public class TwoLevelCacheInvalidationTest {
+
+    private static final String LOCAL_CACHE = "invalidationTestLocal";
+    private static final String REDIS_CACHE = "invalidationTestRedis";
+
+    @CacheAside(name = LOCAL_CACHE, localTtl = 60, redisTtl = 0)
+    public String localOnly() {
+        return null;
+    }
+
+    @CacheAside(name = REDIS_CACHE, localTtl = 0, redisTtl = 60)
+    public String redisOnly() {
+        return null;
+    }
+
+    @Test
+    public void localInvalidateDuringLoad() throws Throwable {
+        assertNoStalePut(cache("localOnly"), LOCAL_CACHE);
+    }
+
+    @Test
+    public void redisInvalidateDuringLoad() throws Throwable {
+        String probeKey = "invalidationTestProbe:" + UUID.randomUUID();
+        Assume.assumeTrue("redis not available", "OK".equals(RedisShardedPoolUtil.setEx(probeKey, "1", 10)));
+        RedisShardedPoolUtil.del(probeKey);
+        assertNoStalePut(cache("redisOnly"), REDIS_CACHE);
+    }
+
+    @Test
+    public void cachedWithoutInvalidate() throws Throwable {
+        TwoLevelCache cache = cache("localOnly");
+        String key = UUID.randomUUID().toString();
+        Assert.assertEquals("old", cache.getOrLoad(key, String.class, new FixedLoader("old")));
+        Assert.assertEquals("old", cache.getOrLoad(key, String.class, new FixedLoader("new")));
+    }
+
+    private void assertNoStalePut(final TwoLevelCache cache, String name) throws Throwable {
+        final String key = UUID.randomUUID().toString();
+        final CountDownLatch loadedLatch = new CountDownLatch(1);
+        final CountDownLatch invalidatedLatch = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> future = executorService.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        return cache.getOrLoad(key, String.class, new FixedLoader("old") {
+                            @Override
+                            public Object load() throws Throwable {
+                                //已经从数据库读到了旧数据，等待修改和invalidate完成之后再返回
+                                loadedLatch.countDown();
+                                Assert.assertTrue(invalidatedLatch.await(10, TimeUnit.SECONDS));
+                                return super.load();
+                            }
+                        });
+                    } catch (Throwable t) {
+                        throw new Exception(t);
+                    }
+                }
+            });
+            Assert.assertTrue(loadedLatch.await(10, TimeUnit.SECONDS));
+            TwoLevelCache.invalidate(name, key);
+            invalidatedLatch.countDown();
+            //回源的请求自己仍然返回读到的值
+            Assert.assertEquals("old", future.get(10, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assert.assertEquals("new", cache.getOrLoad(key, String.class, new FixedLoader("new")));
+        TwoLevelCache.invalidate(name, key);
+    }
+
+    private TwoLevelCache cache(String methodName) throws NoSuchMethodException {
+        return TwoLevelCache.getOrCreate(TwoLevelCacheInvalidationTest.class.getMethod(methodName));
+    }
+
+    private static class FixedLoader implements TwoLevelCache.Loader {
+        private final String value;
+
+        FixedLoader(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object load() throws Throwable {
+            return value;
+        }
+
+        @Override
+        public boolean cacheable(Object value) {
+            return true;
+        }
+    }
+}